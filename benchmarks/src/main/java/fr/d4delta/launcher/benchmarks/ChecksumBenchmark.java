@@ -0,0 +1,111 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Callback;
+import fr.d4delta.launcher.Checksum;
+import fr.d4delta.launcher.Transport;
+import fr.d4delta.launcher.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The checks that decide if a local file is up to date: hashing it, and the whole Transport.update when it didn't change
+ * (the remote checksum is downloaded from a loopback server, the local one comes from the record).
+ * Utils.equals, which compared the files with the remote checksum files, doesn't exist anymore: the records replaced it.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    
+    @Param({"65536", "4194304"})
+    public int size;
+    
+    private LoopbackServer server;
+    private File folder;
+    private File file;
+    private URL url;
+    private Transport transport;
+    private final Callback callback = new Callback();
+    
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        
+        server = new LoopbackServer();
+        server.put("a.jar", content);
+        server.put("a.jar.sha1", Utils.hex(sha1(content)).getBytes("UTF-8"));
+        url = server.url("a.jar");
+        
+        folder = Files.createTempDirectory("checksum-bench").toFile();
+        file = new File(folder, "a.jar");
+        Files.write(file.toPath(), content);
+        
+        transport = new Transport();
+        if(!transport.update(url, file, callback)) {
+            throw new IllegalStateException("The file is not up to date.");
+        }
+    }
+    
+    private static byte[] sha1(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        } catch(Exception ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        server.close();
+        Utils.purge(folder);
+    }
+    
+    @Benchmark
+    public Checksum hash() throws IOException {
+        return Checksum.of(file, "SHA-1");
+    }
+    
+    @Benchmark
+    public boolean updateUpToDate() {
+        return transport.update(url, file, callback);
+    }
+    
+}
@@ -0,0 +1,139 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.IndexedClassLoader;
+import fr.d4delta.launcher.Metrics;
+import fr.d4delta.launcher.Utils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookups of the application class loader over many jars: the URLClassLoader the launcher used, and the IndexedClassLoader.
+ * Each jar has its own package, a few resources, and a service file, like the libraries of a real application.
+ * The misses are what the ServiceLoaders and the resource probing of the frameworks do all the time.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoaderBenchmark {
+    
+    @Param({"150"})
+    public int jars;
+    
+    @Param({"url", "indexed"})
+    public String loader;
+    
+    private File folder;
+    private ClassLoader classLoader;
+    private String lastResource;
+    
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("classloader-bench").toFile();
+        List<File> files = new ArrayList<>();
+        List<URL> urls = new ArrayList<>();
+        for(int i = 0; i < jars; i++) {
+            File jar = new File(folder, "lib" + i + ".jar");
+            try(JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+                for(int r = 0; r < 20; r++) {
+                    out.putNextEntry(new ZipEntry("bench/lib" + i + "/Resource" + r + ".properties"));
+                    out.write(("value=" + r).getBytes("UTF-8"));
+                    out.closeEntry();
+                }
+                out.putNextEntry(new ZipEntry("META-INF/services/bench.Service"));
+                out.write(("bench.lib" + i + ".Service").getBytes("UTF-8"));
+                out.closeEntry();
+            }
+            files.add(jar);
+            urls.add(jar.toURI().toURL());
+        }
+        lastResource = "bench/lib" + (jars - 1) + "/Resource0.properties";
+        
+        //No parent, so only the jars are searched.
+        if(loader.equals("url")) {
+            classLoader = new URLClassLoader(urls.toArray(new URL[urls.size()]), null);
+        } else {
+            classLoader = new IndexedClassLoader(files, null, new Metrics());
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        ((java.io.Closeable) classLoader).close();
+        Utils.purge(folder);
+    }
+    
+    @Benchmark
+    public URL resourceMiss() {
+        return classLoader.getResource("bench/missing/Resource.properties");
+    }
+    
+    @Benchmark
+    public URL resourceInLastJar() {
+        return classLoader.getResource(lastResource);
+    }
+    
+    @Benchmark
+    public Class<?> classMiss() {
+        try {
+            return classLoader.loadClass("bench.missing.Missing");
+        } catch(ClassNotFoundException ex) {
+            return null;
+        }
+    }
+    
+    @Benchmark
+    public int services() throws IOException {
+        int count = 0;
+        Enumeration<URL> services = classLoader.getResources("META-INF/services/bench.Service");
+        while(services.hasMoreElements()) {
+            services.nextElement();
+            count++;
+        }
+        return count;
+    }
+    
+}
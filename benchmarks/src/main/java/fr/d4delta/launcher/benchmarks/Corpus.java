@@ -0,0 +1,73 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A corpus of real poms or jars, found in a folder. By default, the local maven repository.
+ * @author d4delta
+ */
+public class Corpus {
+    
+    /**
+     * @param folder The folder to search, or "" for the local maven repository.
+     * @param max The maximum number of poms
+     * @return The pom files
+     */
+    public static List<File> poms(String folder, int max) {
+        return find(folder, max, ".pom");
+    }
+    
+    /**
+     * @param folder The folder to search, or "" for the local maven repository.
+     * @param max The maximum number of jars
+     * @return The jar files
+     */
+    public static List<File> jars(String folder, int max) {
+        return find(folder, max, ".jar");
+    }
+    
+    private static List<File> find(String folder, int max, String extension) {
+        File root = folder.isEmpty() ? new File(System.getProperty("user.home"), ".m2/repository") : new File(folder);
+        List<File> found = new ArrayList<>();
+        collect(root, found, max, extension);
+        if(found.isEmpty()) {
+            throw new IllegalStateException("No " + extension + " found in " + root);
+        }
+        return found;
+    }
+    
+    private static void collect(File folder, List<File> found, int max, String extension) {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File f: files) {
+            if(found.size() >= max) {
+                return;
+            }
+            if(f.isDirectory()) {
+                collect(f, found, max, extension);
+            } else if(f.getName().endsWith(extension) || (extension.equals(".pom") && f.getName().equals("pom.xml"))) {
+                found.add(f);
+            }
+        }
+    }
+}
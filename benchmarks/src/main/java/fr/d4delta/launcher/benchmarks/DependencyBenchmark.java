@@ -0,0 +1,84 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Callback;
+import fr.d4delta.launcher.Dependency;
+import fr.d4delta.launcher.PomModel;
+import fr.d4delta.launcher.PropertyScope;
+import fr.d4delta.launcher.Transport;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The construction of a dependency from a pom reference: the substitution of its coordinates, and all its paths.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependencyBenchmark {
+    
+    private final File rootFolder = new File("dependency-bench");
+    private final Callback callback = new Callback();
+    private final Transport transport = new Transport();
+    private PomModel.Reference literal;
+    private PomModel.Reference variables;
+    private PropertyScope scope;
+    
+    @Setup
+    public void setup() {
+        literal = new PomModel.Reference();
+        literal.groupId = "org.apache.commons";
+        literal.artifactId = "commons-lang3";
+        literal.version = "3.12.0";
+        
+        variables = new PomModel.Reference();
+        variables.groupId = "${project.groupId}";
+        variables.artifactId = "commons-${module}";
+        variables.version = "${commons.version}";
+        
+        scope = new PropertyScope(null);
+        scope.put("project.groupId", "org.apache.commons");
+        scope.put("module", "lang3");
+        scope.put("commons.version", "3.12.0");
+    }
+    
+    @Benchmark
+    public Dependency literal() {
+        return new Dependency(literal, scope, rootFolder, callback, transport);
+    }
+    
+    @Benchmark
+    public Dependency variables() {
+        return new Dependency(variables, scope, rootFolder, callback, transport);
+    }
+    
+}
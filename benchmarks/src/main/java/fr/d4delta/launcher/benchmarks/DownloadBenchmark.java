@@ -0,0 +1,91 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Callback;
+import fr.d4delta.launcher.Checksum;
+import fr.d4delta.launcher.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Utils.downloadURL from a loopback http server, with and without hashing the downloaded bytes.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadBenchmark {
+    
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+    
+    private LoopbackServer server;
+    private File folder;
+    private File destination;
+    private URL url;
+    private final Callback callback = new Callback();
+    
+    @Setup
+    public void setup() throws IOException {
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        
+        server = new LoopbackServer();
+        server.put("a.jar", content);
+        url = server.url("a.jar");
+        
+        folder = Files.createTempDirectory("download-bench").toFile();
+        destination = new File(folder, "a.jar");
+    }
+    
+    @TearDown
+    public void tearDown() {
+        server.close();
+        Utils.purge(folder);
+    }
+    
+    @Benchmark
+    public boolean download() {
+        return Utils.downloadURL(url, destination, callback);
+    }
+    
+    @Benchmark
+    public boolean downloadHashed() {
+        return Utils.downloadURL(url, destination, callback, Checksum.newDigest("SHA-1"));
+    }
+    
+}
@@ -0,0 +1,234 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Callback;
+import fr.d4delta.launcher.Dependency;
+import fr.d4delta.launcher.Launcher;
+import fr.d4delta.launcher.Utils;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jdom2.JDOMException;
+
+/**
+ * End to end launches against a generated repository, served on the loopback interface. Nothing goes on the network.
+ * Each run launches the application four times in a new folder:
+ * cold (empty folder), warm (everything is checked again, nothing changed), locked (from the lockfile), 
+ * and stale (a part of the jars were redeployed, everything is checked again).
+ * 
+ * Usage: java -cp target/benchmarks.jar fr.d4delta.launcher.benchmarks.LaunchBenchmark [--option value]...
+ * The options are: artifacts, depth, fanout, jarsize (the shape of the repository), latency (ms), bandwidth (bytes/s), 
+ * failures (probability of a failed request), threads (resolution threads), perhost (connections to the repository), stale (fraction of redeployed jars), 
+ * runs, warmups (untimed runs, for the JIT), keep (true to keep the folders).
+ * @author d4delta
+ */
+public class LaunchBenchmark {
+    
+    /**
+     * The launched application. It does nothing, it just counts the launches.
+     */
+    public static class Application {
+        static final AtomicInteger launches = new AtomicInteger();
+        
+        public static void main(String[] args) {
+            launches.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Counts the errors, and doesn't print anything.
+     */
+    private static class QuietCallback extends Callback {
+        int errors;
+        
+        @Override
+        public void dependencyUnavailableError(Dependency dependency) {
+            errors++;
+        }
+        
+        @Override
+        public void downloadError(IOException cause, URL originURL, File destination) {
+            errors++;
+        }
+        
+        @Override
+        public void pomLoadError(Dependency dependency, Exception cause) {
+            errors++;
+        }
+        
+        @Override
+        public void mainClassInvocationError(Exception cause, String mainClass) {
+            errors++;
+        }
+        
+        @Override
+        public void noMainClassError() {
+            errors++;
+        }
+    }
+    
+    /**
+     * What happened during one launch.
+     */
+    private static class Result {
+        long millis;
+        long gets;
+        long heads;
+        long notFound;
+        long failures;
+        long bytes;
+        int errors;
+        boolean launched;
+    }
+    
+    private final Map<String, String> options;
+    private final LoopbackServer server;
+    private final byte[] mainPom;
+    private final SyntheticRepository repository = new SyntheticRepository();
+    private final Map<String, List<Result>> results = new LinkedHashMap<>();
+    
+    public LaunchBenchmark(Map<String, String> options, LoopbackServer server) throws IOException {
+        this.options = options;
+        this.server = server;
+        
+        repository.artifacts = option("artifacts", 500);
+        repository.depth = option("depth", 4);
+        repository.fanOut = option("fanout", 3);
+        repository.jarSize = option("jarsize", 16384);
+        mainPom = repository.publish(server, "synthetic", Application.class.getName());
+        
+        server.latency = option("latency", 0);
+        server.bandwidth = option("bandwidth", 0);
+        server.failureRate = Double.parseDouble(option("failures", "0"));
+    }
+    
+    private String option(String name, String def) {
+        String value = options.get(name);
+        return value != null ? value : def;
+    }
+    
+    private int option(String name, int def) {
+        return Integer.parseInt(option(name, String.valueOf(def)));
+    }
+    
+    /**
+     * Launch the application in a new folder, in the four situations.
+     * @param record If the results are kept
+     */
+    public void run(File folder, boolean record) throws Exception {
+        launch("cold", folder, false, record);
+        launch("warm", folder, false, record);
+        launch("locked", folder, true, record);
+        repository.republish(server, Double.parseDouble(option("stale", "0.1")));
+        launch("stale", folder, false, record);
+    }
+    
+    private void launch(String scenario, File folder, boolean locked, boolean record) throws JDOMException, IOException {
+        QuietCallback callback = new QuietCallback();
+        Launcher launcher = new Launcher(folder, new ByteArrayInputStream(mainPom), callback);
+        launcher.lockedLaunch = locked;
+        //Only the loopback repository: central would make the cold launches depend on the internet.
+        launcher.defaultRepository = null;
+        launcher.resolutionThreads = option("threads", 1);
+        launcher.transport.scheduler.maxPerHost = option("perhost", 4);
+        
+        Result result = new Result();
+        long gets = server.gets.get(), heads = server.heads.get(), notFound = server.notFound.get(), failures = server.failures.get(), bytes = server.bytes.get();
+        int launches = Application.launches.get();
+        
+        long start = System.nanoTime();
+        launcher.run();
+        result.millis = (System.nanoTime() - start) / 1000000;
+        
+        result.gets = server.gets.get() - gets;
+        result.heads = server.heads.get() - heads;
+        result.notFound = server.notFound.get() - notFound;
+        result.failures = server.failures.get() - failures;
+        result.bytes = server.bytes.get() - bytes;
+        result.errors = callback.errors;
+        result.launched = Application.launches.get() > launches;
+        
+        if(record) {
+            if(!results.containsKey(scenario)) {
+                results.put(scenario, new ArrayList<Result>());
+            }
+            results.get(scenario).add(result);
+        }
+    }
+    
+    public void report() {
+        System.out.println(String.format("%-8s %9s %9s %9s %8s %8s %6s %6s %12s %7s %9s", 
+                "scenario", "median ms", "min ms", "max ms", "GET", "HEAD", "404", "failed", "bytes", "errors", "launched"));
+        for(Entry<String, List<Result>> e: results.entrySet()) {
+            List<Result> runs = e.getValue();
+            List<Long> millis = new ArrayList<>();
+            long gets = 0, heads = 0, notFound = 0, failures = 0, bytes = 0, errors = 0, launched = 0;
+            for(Result r: runs) {
+                millis.add(r.millis);
+                gets += r.gets;
+                heads += r.heads;
+                notFound += r.notFound;
+                failures += r.failures;
+                bytes += r.bytes;
+                errors += r.errors;
+                launched += r.launched ? 1 : 0;
+            }
+            Collections.sort(millis);
+            
+            //The counts are the averages of the runs.
+            int n = runs.size();
+            System.out.println(String.format("%-8s %9d %9d %9d %8d %8d %6d %6d %12d %7d %6d/%d", 
+                    e.getKey(), millis.get(n / 2), millis.get(0), millis.get(n - 1), 
+                    gets / n, heads / n, notFound / n, failures / n, bytes / n, errors / n, launched, n));
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        
+        File work = Files.createTempDirectory("launch-bench").toFile();
+        try(LoopbackServer server = new LoopbackServer()) {
+            LaunchBenchmark benchmark = new LaunchBenchmark(options, server);
+            System.out.println("Repository: " + options + " at " + server.root() + ", folders in " + work);
+            
+            int warmups = benchmark.option("warmups", 1);
+            int runs = benchmark.option("runs", 3);
+            for(int i = 0; i < warmups + runs; i++) {
+                benchmark.run(new File(work, "run" + i), i >= warmups);
+            }
+            benchmark.report();
+        } finally {
+            if(!Boolean.parseBoolean(options.get("keep"))) {
+                Utils.purge(work);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tiny http repository on the loopback interface, serving files from memory.
+ * It can simulate a slow or unreliable repository: latency, bandwidth cap, and failures.
+ * @author d4delta
+ */
+public class LoopbackServer implements HttpHandler, AutoCloseable {
+    
+    static {
+        //Without it, the small responses (the checksums) wait for the delayed ack of the client, ~40ms each.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+    
+    /**
+     * The time (in milliseconds) before each response.
+     */
+    public volatile int latency;
+    
+    /**
+     * The maximum speed of each response, in bytes per second, or 0 for no limit.
+     */
+    public volatile long bandwidth;
+    
+    /**
+     * The probability that a request fails: half of the failures are a 503, the other half a response cut in the middle.
+     */
+    public volatile double failureRate;
+    
+    public final AtomicLong gets = new AtomicLong();
+    public final AtomicLong heads = new AtomicLong();
+    public final AtomicLong notFound = new AtomicLong();
+    public final AtomicLong failures = new AtomicLong();
+    public final AtomicLong bytes = new AtomicLong();
+    
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ConcurrentHashMap<String, byte[]> files = new ConcurrentHashMap<>();
+    private final Random random = new Random(42);
+    
+    public LoopbackServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this);
+        server.setExecutor(executor);
+        server.start();
+    }
+    
+    /**
+     * @param path The path of the file on the server, like "org/example/a/1.0/a-1.0.jar"
+     */
+    public void put(String path, byte[] content) {
+        files.put("/" + path, content);
+    }
+    
+    /**
+     * @return The url of the root of the server, ending with a '/'.
+     */
+    public String root() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+    
+    public URL url(String path) throws IOException {
+        return new URL(root() + path);
+    }
+    
+    /**
+     * @return The number of requests received
+     */
+    public long requests() {
+        return gets.get() + heads.get();
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            (head ? heads : gets).incrementAndGet();
+            
+            if(latency > 0) {
+                Thread.sleep(latency);
+            }
+            
+            boolean fails = failureRate > 0 && random.nextDouble() < failureRate;
+            if(fails && random.nextBoolean()) {
+                failures.incrementAndGet();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            
+            byte[] content = files.get(exchange.getRequestURI().getPath());
+            if(content == null) {
+                notFound.incrementAndGet();
+                exchange.sendResponseHeaders(404, -1);
+            } else if(head) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, content.length);
+                //A cut response sends only the first half of the file, then the connection is closed.
+                int length = content.length;
+                if(fails) {
+                    failures.incrementAndGet();
+                    length /= 2;
+                }
+                send(exchange.getResponseBody(), content, length);
+                if(!fails) {
+                    exchange.getResponseBody().close();
+                }
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static final int chunkSize = 16384;
+    
+    private void send(OutputStream out, byte[] content, int length) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        for(int sent = 0; sent < length;) {
+            int chunk = Math.min(chunkSize, length - sent);
+            out.write(content, sent, chunk);
+            sent += chunk;
+            bytes.addAndGet(chunk);
+            
+            long cap = bandwidth;
+            if(cap > 0) {
+                //Wait until the average speed is back under the cap.
+                long ahead = sent * 1000L / cap - (System.nanoTime() - start) / 1000000L;
+                if(ahead > 0) {
+                    Thread.sleep(ahead);
+                }
+            }
+        }
+        out.flush();
+    }
+    
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,110 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Checksum;
+import fr.d4delta.launcher.PomCache;
+import fr.d4delta.launcher.PomModel;
+import fr.d4delta.launcher.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * How the launcher loads the downloaded poms: from the memory cache, from the binary models next to the poms (a new launch), 
+ * or parsed from the poms (the models are missing or outdated).
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PomLoadBenchmark {
+    
+    @Param("")
+    public String corpus;
+    
+    @Param("500")
+    public int maxPoms;
+    
+    private File folder;
+    private File[] poms;
+    private PomCache memory;
+    
+    @Setup
+    public void setup() throws Exception {
+        //The poms are copied with their checksum record, like the launcher downloads them.
+        folder = Files.createTempDirectory("pom-bench").toFile();
+        List<File> files = Corpus.poms(corpus, maxPoms);
+        poms = new File[files.size()];
+        for(int i = 0; i < poms.length; i++) {
+            poms[i] = new File(folder, i + ".pom");
+            Files.copy(files.get(i).toPath(), poms[i].toPath());
+            Checksum.of(poms[i], Checksum.defaultAlgorithm).writeRecord(poms[i]);
+        }
+        
+        memory = new PomCache(poms.length);
+        for(File pom: poms) {
+            memory.load(pom);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Utils.purge(folder);
+    }
+    
+    @Benchmark
+    public void memoryCache(Blackhole bh) throws Exception {
+        for(File pom: poms) {
+            bh.consume(memory.load(pom));
+        }
+    }
+    
+    @Benchmark
+    public void modelFiles(Blackhole bh) throws Exception {
+        PomCache cache = new PomCache();
+        for(File pom: poms) {
+            bh.consume(cache.load(pom));
+        }
+    }
+    
+    @Benchmark
+    public void parse(Blackhole bh) throws Exception {
+        for(File pom: poms) {
+            bh.consume(PomModel.parse(pom));
+        }
+    }
+    
+}
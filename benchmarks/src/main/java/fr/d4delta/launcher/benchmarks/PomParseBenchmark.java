@@ -0,0 +1,85 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.PomModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.jdom2.input.SAXBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare the streaming pom reader with the old way (a whole JDOM document, then the model) on a corpus of real poms.
+ * By default, the corpus is every pom of the local maven repository. Run it with "-prof gc" to see the allocations.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PomParseBenchmark {
+    
+    @Param("")
+    public String corpus;
+    
+    @Param("500")
+    public int maxPoms;
+    
+    private byte[][] poms;
+    
+    @Setup
+    public void load() throws IOException {
+        List<File> files = Corpus.poms(corpus, maxPoms);
+        poms = new byte[files.size()][];
+        for(int i = 0; i < poms.length; i++) {
+            poms[i] = Files.readAllBytes(files.get(i).toPath());
+        }
+    }
+    
+    @Benchmark
+    public void stax(Blackhole bh) throws Exception {
+        for(byte[] pom: poms) {
+            bh.consume(PomModel.parse(new ByteArrayInputStream(pom)));
+        }
+    }
+    
+    @Benchmark
+    public void jdom(Blackhole bh) throws Exception {
+        SAXBuilder builder = new SAXBuilder();
+        for(byte[] pom: poms) {
+            bh.consume(PomModel.of(builder.build(new ByteArrayInputStream(pom)).getRootElement()));
+        }
+    }
+    
+}
@@ -0,0 +1,123 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Checksum;
+import fr.d4delta.launcher.IndexedClassLoader;
+import fr.d4delta.launcher.JarRepacker;
+import fr.d4delta.launcher.Metrics;
+import fr.d4delta.launcher.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time to main of an application, approximated by loading (without initializing) every class of real jars
+ * in a new IndexedClassLoader, like the launcher does before it calls main. 
+ * With the jars as they are downloaded (deflated), and repacked by JarRepacker (stored).
+ * The jars are copied from the local maven repository (at most maxJars), use -p corpus=/some/folder to use other ones.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepackBenchmark {
+    
+    @Param({""})
+    public String corpus;
+    
+    @Param({"20"})
+    public int maxJars;
+    
+    @Param({"false", "true"})
+    public boolean stored;
+    
+    private File folder;
+    private final List<File> jars = new ArrayList<>();
+    private final List<String> classes = new ArrayList<>();
+    
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("repack-bench").toFile();
+        Metrics metrics = new Metrics();
+        int i = 0;
+        for(File original: Corpus.jars(corpus, maxJars)) {
+            File jar = new File(folder, (i++) + "-" + original.getName());
+            Files.copy(original.toPath(), jar.toPath());
+            if(stored) {
+                jar = JarRepacker.repack(jar, Checksum.of(jar, Checksum.defaultAlgorithm), metrics);
+            }
+            jars.add(jar);
+            
+            try(ZipFile zip = new ZipFile(jar)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while(entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    if(name.endsWith(".class") && !name.startsWith("META-INF/") && !name.endsWith("module-info.class")) {
+                        classes.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                    }
+                }
+            }
+        }
+    }
+    
+    @TearDown
+    public void tearDown() {
+        Utils.purge(folder);
+    }
+    
+    /**
+     * @return The number of classes that were loaded (some need classes that are not in the corpus).
+     */
+    @Benchmark
+    public int loadClasses() throws IOException {
+        int loaded = 0;
+        try(IndexedClassLoader loader = new IndexedClassLoader(jars, ClassLoader.getSystemClassLoader().getParent(), new Metrics())) {
+            for(String name: classes) {
+                try {
+                    Class.forName(name, false, loader);
+                    loaded++;
+                } catch(ClassNotFoundException | LinkageError ex) {}
+            }
+        }
+        return loaded;
+    }
+    
+}
@@ -0,0 +1,91 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.PropertyScope;
+import fr.d4delta.launcher.Utils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The substitution of the maven variables: the compiled templates (with the System properties, or a scope chain) and the old string rescanning.
+ * @author d4delta
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubstitutionBenchmark {
+    
+    /**
+     * The number of variables in the string.
+     */
+    @Param({"1", "3", "50"})
+    public int variables;
+    
+    private String template;
+    private PropertyScope scope;
+    
+    @Setup
+    public void setup() {
+        PropertyScope root = new PropertyScope(null);
+        PropertyScope middle = new PropertyScope(root);
+        scope = new PropertyScope(middle);
+        
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < variables; i++) {
+            String name = "bench.property" + i;
+            String value = "value-of-property-" + i;
+            System.setProperty(name, value);
+            //The values are spread on the scope chain, like the properties of the poms of a branch.
+            (i % 3 == 0 ? root : i % 3 == 1 ? middle : scope).put(name, value);
+            sb.append("text").append(i).append("-${").append(name).append("}.");
+        }
+        template = sb.toString();
+    }
+    
+    @Benchmark
+    public String substituteMaven() {
+        return Utils.substituteMaven(template);
+    }
+    
+    @Benchmark
+    public String scopeInterpolate() {
+        return scope.interpolate(template);
+    }
+    
+    /**
+     * The generic substitution, which is still the old algorithm: a rescan and a replaceAll per variable.
+     */
+    @Benchmark
+    public String legacySubstitute() {
+        return Utils.substitute(template, "${", "}");
+    }
+    
+}
@@ -0,0 +1,172 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package fr.d4delta.launcher.benchmarks;
+
+import fr.d4delta.launcher.Utils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A generated maven repository: an application, and a graph of dependencies of the given shape.
+ * The artifacts are split in levels: the application is alone on the first one, and each artifact depends 
+ * on about fanOut artifacts of the next level. Every artifact is used at least once, and most are shared.
+ * @author d4delta
+ */
+public class SyntheticRepository {
+    
+    public static final String groupId = "bench.synthetic";
+    public static final String groupPath = "bench/synthetic/";
+    public static final String version = "1.0";
+    
+    public int artifacts = 500;
+    public int depth = 4;
+    public int fanOut = 3;
+    public int jarSize = 16384;
+    public long seed = 42;
+    
+    private final List<List<Integer>> dependencies = new ArrayList<>();
+    private int generation;
+    
+    /**
+     * Generate the repository and publish it on a server.
+     * @return The main pom that launches the application of the repository.
+     */
+    public byte[] publish(LoopbackServer server, String repositoryId, String mainClass) throws IOException {
+        Random random = new Random(seed);
+        dependencies.clear();
+        for(int i = 0; i < artifacts; i++) {
+            dependencies.add(new ArrayList<Integer>());
+        }
+        
+        //The levels, as [first, end) ranges of artifacts.
+        List<int[]> levels = new ArrayList<>();
+        levels.add(new int[] {0, 1});
+        int levelCount = Math.max(1, Math.min(depth, artifacts - 1));
+        for(int l = 0, first = 1; first < artifacts; l++) {
+            int end = l == levelCount - 1 ? artifacts : first + (artifacts - 1) / levelCount;
+            levels.add(new int[] {first, end});
+            first = end;
+        }
+        
+        for(int l = 0; l < levels.size() - 1; l++) {
+            int[] parents = levels.get(l);
+            int[] children = levels.get(l + 1);
+            int parentCount = parents[1] - parents[0];
+            int childCount = children[1] - children[0];
+            
+            //Every child has at least one parent...
+            for(int c = 0; c < childCount; c++) {
+                dependencies.get(parents[0] + c % parentCount).add(children[0] + c);
+            }
+            //...and the parents get more until they have fanOut children.
+            for(int p = parents[0]; p < parents[1]; p++) {
+                List<Integer> deps = dependencies.get(p);
+                while(deps.size() < Math.min(fanOut, childCount)) {
+                    int child = children[0] + random.nextInt(childCount);
+                    if(!deps.contains(child)) {
+                        deps.add(child);
+                    }
+                }
+            }
+        }
+        
+        for(int i = 0; i < artifacts; i++) {
+            publishPom(server, i);
+            publishJar(server, i, random);
+        }
+        
+        return mainPom(server.root(), repositoryId, mainClass);
+    }
+    
+    /**
+     * Publish a new content for some of the jars, like a redeployment.
+     * @param fraction The fraction of the artifacts that change
+     * @return The number of changed jars
+     */
+    public int republish(LoopbackServer server, double fraction) throws IOException {
+        Random random = new Random(seed + ++generation);
+        int changed = 0;
+        for(int i = 0; i < artifacts; i++) {
+            if(random.nextDouble() < fraction) {
+                publishJar(server, i, random);
+                changed++;
+            }
+        }
+        return changed;
+    }
+    
+    public static String artifactId(int artifact) {
+        return "a" + artifact;
+    }
+    
+    private static String path(int artifact, String ext) {
+        return groupPath + artifactId(artifact) + "/" + version + "/" + artifactId(artifact) + "-" + version + ext;
+    }
+    
+    private void publishPom(LoopbackServer server, int artifact) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        sb.append("  <modelVersion>4.0.0</modelVersion>\n");
+        sb.append("  <groupId>").append(groupId).append("</groupId>\n");
+        sb.append("  <artifactId>").append(artifactId(artifact)).append("</artifactId>\n");
+        sb.append("  <version>").append(version).append("</version>\n");
+        sb.append("  <properties>\n    <synthetic.version>").append(version).append("</synthetic.version>\n  </properties>\n");
+        sb.append("  <dependencies>\n");
+        for(int dependency: dependencies.get(artifact)) {
+            sb.append("    <dependency>\n");
+            sb.append("      <groupId>${project.groupId}</groupId>\n");
+            sb.append("      <artifactId>").append(artifactId(dependency)).append("</artifactId>\n");
+            sb.append("      <version>${synthetic.version}</version>\n");
+            sb.append("    </dependency>\n");
+        }
+        sb.append("  </dependencies>\n</project>\n");
+        publish(server, path(artifact, ".pom"), sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private void publishJar(LoopbackServer server, int artifact, Random random) throws IOException {
+        //Random data doesn't compress, so the jar is about jarSize.
+        byte[] data = new byte[jarSize];
+        random.nextBytes(data);
+        
+        ByteArrayOutputStream jar = new ByteArrayOutputStream(jarSize + 512);
+        try(ZipOutputStream zip = new ZipOutputStream(jar)) {
+            zip.putNextEntry(new ZipEntry(groupPath + artifactId(artifact) + "/data.bin"));
+            zip.write(data);
+            zip.closeEntry();
+        }
+        publish(server, path(artifact, ".jar"), jar.toByteArray());
+    }
+    
+    private static void publish(LoopbackServer server, String path, byte[] content) {
+        server.put(path, content);
+        server.put(path + ".sha1", Utils.sha1(content).getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static byte[] mainPom(String url, String repositoryId, String mainClass) {
+        return ("<project>\n"
+                + "  <repositories><repository><id>" + repositoryId + "</id><url>" + url + "</url></repository></repositories>\n"
+                + "  <properties><delta.launcher.main>" + mainClass + "</delta.launcher.main></properties>\n"
+                + "  <dependencies><dependency><groupId>" + groupId + "</groupId><artifactId>" + artifactId(0) + "</artifactId><version>" + version + "</version></dependency></dependencies>\n"
+                + "</project>\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
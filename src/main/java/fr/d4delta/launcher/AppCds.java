@@ -0,0 +1,139 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The AppCDS archives of the launched application.
+ * The first launch of a classpath records the classes it loads in a dynamic archive, at the exit of the JVM, 
+ * and the next launches map the archive instead of parsing and verifying the same classes again.
+ * An archive belongs to one classpath and one JVM: if any jar changes, the fingerprint changes, and a new archive is recorded.
+ * The archives need a forked JVM (they're only read when a JVM starts) and Java 13 or more.
+ * @author d4delta
+ */
+public class AppCds {
+    
+    public static final String folderName = "_cds";
+    public static final String archiveExt = ".jsa";
+    
+    public final File folder;
+    
+    /**
+     * @param rootFolder The launcher root folder, where the archives are kept.
+     */
+    public AppCds(File rootFolder) {
+        folder = new File(rootFolder, folderName);
+    }
+    
+    /**
+     * @return If the JVM that will be forked (the same as this one) can record dynamic archives.
+     */
+    public static boolean isSupported() {
+        String version = System.getProperty("java.specification.version");
+        try {
+            //1.6, 1.7, 1.8, then 9, 10...
+            return !version.startsWith("1.") && Integer.parseInt(version) >= 13;
+        } catch(NumberFormatException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * The fingerprint of a classpath: the JVM, and the path, size, date and checksum of each jar.
+     */
+    public static String fingerprint(List<URL> classpath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.getProperty("java.home")).append('\n').append(System.getProperty("java.vm.version")).append('\n');
+        for(URL url: classpath) {
+            sb.append(url).append('\n');
+            File jar = Utils.file(url);
+            if(jar != null) {
+                sb.append(jar.length()).append(' ').append(jar.lastModified());
+                Checksum checksum = Checksum.readRecord(jar);
+                if(checksum != null) {
+                    sb.append(' ').append(checksum);
+                }
+                sb.append('\n');
+            }
+        }
+        try {
+            return Utils.sha1(sb.toString().getBytes("UTF-8"));
+        } catch(IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * @return The archive of a classpath. It may not exist yet.
+     */
+    public File archive(List<URL> classpath) {
+        return new File(folder, fingerprint(classpath) + archiveExt);
+    }
+    
+    /**
+     * The options to give to the forked JVM: use the archive if it's there, or record it.
+     * When it's recorded, the archives of the other classpaths are deleted, they won't be used anymore.
+     * @param archive The archive of the classpath
+     */
+    public List<String> options(File archive) {
+        List<String> options = new ArrayList<>();
+        if(archive.isFile()) {
+            options.add("-XX:SharedArchiveFile=" + archive.getPath());
+            //If the archive can't be mapped, the application still starts, just slower.
+            options.add("-Xshare:auto");
+        } else {
+            folder.mkdirs();
+            File[] others = folder.listFiles();
+            if(others != null) {
+                for(File f: others) {
+                    //The JVM makes its archives read only.
+                    f.setWritable(true);
+                    Utils.purge(f);
+                }
+            }
+            //The JVM writes the archive when it exits: it's written aside, so a crash can't leave half an archive.
+            options.add("-XX:ArchiveClassesAtExit=" + Utils.partFile(archive).getPath());
+        }
+        return options;
+    }
+    
+    /**
+     * Called when the forked JVM exited, to keep the archive it recorded, if any.
+     * @return If an archive was recorded.
+     */
+    public boolean recorded(File archive) {
+        File part = Utils.partFile(archive);
+        if(!part.isFile() || part.length() == 0) {
+            part.delete();
+            return false;
+        }
+        try {
+            Utils.move(part, archive);
+            return true;
+        } catch(IOException ex) {
+            part.delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * The artifact store keeps one copy of every downloaded file, named by its checksum.
+ * It can be shared by several launchers (with different root folders): the files of each launcher are links to the store,
+ * and a file that is already in the store is not downloaded again.
+ * Each object has a checksum record, and it is hashed again before it's linked if it changed since.
+ * @author d4delta
+ */
+public class ArtifactStore {
+    
+    public final File folder;
+    
+    /**
+     * @param folder The folder of the store. It should be on the same file system as the root folders of the launchers, so hard links can be used.
+     */
+    public ArtifactStore(File folder) {
+        this.folder = folder;
+    }
+    
+    /**
+     * @param checksum The checksum of a file
+     * @return Where the file with this checksum is (or would be) in the store.
+     */
+    public File object(Checksum checksum) {
+        String algorithm = checksum.algorithm.replace("-", "").toLowerCase();
+        return new File(folder, algorithm + File.separator + checksum.value.substring(0, 2) + File.separator + checksum.value.substring(2));
+    }
+    
+    public boolean contains(Checksum checksum) {
+        return object(checksum).isFile();
+    }
+    
+    /**
+     * Put a file in the store, if it's not already there.
+     * @param checksum The checksum of the file
+     * @param file The file, that must have been verified against the checksum.
+     */
+    public void add(Checksum checksum, File file) {
+        File object = object(checksum);
+        if(object.isFile()) {
+            return;
+        }
+        
+        object.getParentFile().mkdirs();
+        //Several launchers can add the same file at the same time, so each one works on its own temporary file.
+        File temp = new File(object.getPath() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try {
+                Files.createLink(temp.toPath(), file.toPath());
+            } catch(IOException | UnsupportedOperationException ex) {
+                Files.copy(file.toPath(), temp.toPath());
+            }
+            Utils.move(temp, object);
+            new Checksum(checksum.algorithm, checksum.value).writeRecord(object);
+        } catch(IOException ex) {
+            temp.delete();
+        }
+    }
+    
+    /**
+     * Check that an object still has its checksum, so a corrupted one is not linked everywhere.
+     * The object is only hashed if it doesn't have a record, or if it changed since its record was written.
+     * A corrupted object is removed from the store.
+     * @return If the object can be used.
+     */
+    private static boolean verify(Checksum checksum, File object) {
+        Checksum record = Checksum.readRecord(object);
+        if(record != null && record.describes(object)) {
+            if(record.matches(checksum)) {
+                return true;
+            }
+        } else {
+            try {
+                if(Checksum.of(object, checksum.algorithm).matches(checksum)) {
+                    new Checksum(checksum.algorithm, checksum.value).writeRecord(object);
+                    return true;
+                }
+            } catch(IOException ex) {
+                return false;
+            }
+        }
+        object.delete();
+        Checksum.recordFile(object).delete();
+        return false;
+    }
+    
+    /**
+     * Make a file from the store appear at the given place.
+     * A hard link is used when possible, then a symbolic link, and if none of them works, the file is copied.
+     * @param checksum The checksum of the wanted file
+     * @param destination Where the file should appear. If it exists, it is replaced.
+     * @return false if the file is not in the store (or it is corrupted), or if it can't be linked.
+     */
+    public boolean link(Checksum checksum, File destination) {
+        File object = object(checksum);
+        if(!object.isFile() || !verify(checksum, object)) {
+            return false;
+        }
+        
+        destination.getParentFile().mkdirs();
+        File temp = new File(destination.getPath() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try {
+                Files.createLink(temp.toPath(), object.toPath());
+            } catch(IOException | UnsupportedOperationException ex) {
+                try {
+                    Files.createSymbolicLink(temp.toPath(), object.getAbsoluteFile().toPath());
+                } catch(IOException | UnsupportedOperationException ex2) {
+                    Files.copy(object.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Utils.move(temp, destination);
+            return true;
+        } catch(IOException ex) {
+            temp.delete();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Properties;
+
+/**
+ * What the repository told about a cached file: the ETag and the Last-Modified of the file and of its checksum, 
+ * and the checksum itself. It's kept in a sidecar file next to the cached file, so the next launches can ask the 
+ * repository if they changed (If-None-Match / If-Modified-Since), and get a tiny 304 instead of the checksum again.
+ * @author d4delta
+ */
+public class CacheValidators {
+    
+    public static final String ext = ".http";
+    
+    /**
+     * The validators of the cached file, and the checksum the file had when they were sent.
+     */
+    public String etag, lastModified;
+    public Checksum downloaded;
+    
+    /**
+     * The validators of the remote checksum file, and the checksum it contained.
+     */
+    public String checksumURL, checksumEtag, checksumLastModified;
+    public Checksum checksum;
+    
+    private boolean changed;
+    
+    public static File file(File cached) {
+        return new File(cached.getPath() + ext);
+    }
+    
+    /**
+     * @return The validators of a cached file. Empty if there is none (or if they can't be read).
+     */
+    public static CacheValidators read(File cached) {
+        CacheValidators validators = new CacheValidators();
+        Properties content = new Properties();
+        try(InputStream in = new FileInputStream(file(cached))) {
+            content.load(in);
+        } catch(IOException | IllegalArgumentException ex) {
+            return validators;
+        }
+        validators.etag = content.getProperty("etag");
+        validators.lastModified = content.getProperty("lastModified");
+        validators.downloaded = checksum(content.getProperty("downloaded"));
+        validators.checksumURL = content.getProperty("checksum.url");
+        validators.checksumEtag = content.getProperty("checksum.etag");
+        validators.checksumLastModified = content.getProperty("checksum.lastModified");
+        validators.checksum = checksum(content.getProperty("checksum"));
+        return validators;
+    }
+    
+    private static Checksum checksum(String value) {
+        if(value == null) {
+            return null;
+        }
+        String[] parts = value.split(" ", 2);
+        return parts.length == 2 ? new Checksum(parts[0], parts[1]) : null;
+    }
+    
+    /**
+     * @param validators The ETag and the Last-Modified sent with the cached file (each can be null)
+     * @param downloaded The checksum of the file that was received
+     */
+    public void setFile(String[] validators, Checksum downloaded) {
+        etag = validators[0];
+        lastModified = validators[1];
+        this.downloaded = etag != null || lastModified != null ? downloaded : null;
+        changed = true;
+    }
+    
+    /**
+     * @param url The url of the checksum file
+     * @param validators The ETag and the Last-Modified sent with the checksum file (each can be null)
+     * @param checksum The checksum it contained
+     */
+    public void setChecksum(URL url, String[] validators, Checksum checksum) {
+        checksumURL = url.toString();
+        checksumEtag = validators[0];
+        checksumLastModified = validators[1];
+        this.checksum = checksum;
+        changed = true;
+    }
+    
+    /**
+     * @return If the remote checksum file can be asked with a conditional request.
+     */
+    public boolean hasChecksum(URL url) {
+        return checksum != null && url.toString().equals(checksumURL) && (checksumEtag != null || checksumLastModified != null);
+    }
+    
+    /**
+     * @return If the cached file can be asked with a conditional request: it has validators, and it's still the file they were sent with.
+     */
+    public boolean hasFile(Checksum local) {
+        return (etag != null || lastModified != null) && downloaded != null && local != null && downloaded.matches(local);
+    }
+    
+    /**
+     * Save the validators next to the cached file, if they changed since they were read.
+     */
+    public void write(File cached) {
+        if(!changed) {
+            return;
+        }
+        Properties content = new Properties();
+        put(content, "etag", etag);
+        put(content, "lastModified", lastModified);
+        put(content, "downloaded", downloaded != null ? downloaded.algorithm + " " + downloaded.value : null);
+        if(checksum != null && (checksumEtag != null || checksumLastModified != null)) {
+            put(content, "checksum.url", checksumURL);
+            put(content, "checksum.etag", checksumEtag);
+            put(content, "checksum.lastModified", checksumLastModified);
+            put(content, "checksum", checksum.algorithm + " " + checksum.value);
+        }
+        
+        File file = file(cached);
+        if(content.isEmpty()) {
+            file.delete();
+            return;
+        }
+        File part = Utils.partFile(file);
+        try {
+            try(OutputStream out = new FileOutputStream(part)) {
+                content.store(out, null);
+            }
+            Utils.move(part, file);
+            changed = false;
+        } catch(IOException ex) {
+            part.delete();
+        }
+    }
+    
+    private static void put(Properties content, String key, String value) {
+        if(value != null) {
+            content.setProperty(key, value);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.List;
 
 /**
  * The callback class is used by DeltaLauncher to send feedback to the main program.
@@ -54,12 +55,68 @@ public class Callback {
     
     public void nativeHackError(NativeHackException exception) {}
     
+    /**
+     * The update in the background failed (see Launcher.staleWhileRevalidate). The next launch will try again.
+     * It's called from the background thread.
+     */
+    public void backgroundUpdateError(Exception cause) {};
+    
     //NOTIFICATIONS
     
+    public void lockedLaunchNotification(File lockfile) {};
+    
+    /**
+     * An update was downloaded in the background (see Launcher.staleWhileRevalidate), it will be used by the next launch.
+     * It's called from the background thread.
+     * @param staging The folder where the update waits
+     */
+    public void updateReadyNotification(File staging) {};
+    
+    /**
+     * Called just before the application is launched, with the metrics of the update (Launcher.metrics).
+     */
+    public void metricsNotification(Metrics.Snapshot metrics) {};
+    
     public void readyToLaunchNotification(String mainClassPath, Class mainClass, Method main) {};
     
+    /**
+     * The application is launched in a new JVM, with an AppCDS archive.
+     * @param archive The archive of the classpath
+     * @param reused true if the archive is used, false if it's recorded by this launch.
+     */
+    public void appCdsNotification(File archive, boolean reused) {};
+    
+    /**
+     * The application is launched in a new JVM (delta.launcher.fork or delta.launcher.cds is true).
+     * @param command The command line of the JVM
+     */
+    public void forkNotification(List<String> command) {};
+    
+    /**
+     * A line written by the forked JVM. It's called from a thread that reads the output.
+     * By default, the line is written to the output of this JVM.
+     * @param error If the line was written on the error output.
+     */
+    public void processOutputNotification(String line, boolean error) {
+        (error ? System.err : System.out).println(line);
+    };
+    
+    /**
+     * The forked JVM exited.
+     */
+    public void processExitNotification(int exitCode) {};
+    
+    /**
+     * The progress of a download. It's called from the progress thread, at most every Progress.interval, and only if the file progressed.
+     * @param fileSize The size of the file, or -1 if it's unknown.
+     */
     public void downloadStateNotification(URL origin, File destination, long fileSize, long downloaded) {};
     
+    /**
+     * The progress of all the downloads of the launch. It's called from the progress thread, at most every Progress.interval.
+     */
+    public void progressNotification(Progress.Snapshot progress) {};
+    
     public void addingRepositoryNotification(String id, String url) {};
     
     public String[] addingPropertyNotification(String key, String value) {return new String[] {key, value};};
@@ -0,0 +1,168 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Scanner;
+
+/**
+ * A checksum of a file: the digest algorithm, and the digest in hexadecimal.
+ * A checksum can be recorded next to the file it was computed from, so we don't have to hash the file (or download its checksum) again.
+ * @author d4delta
+ */
+public class Checksum {
+    
+    public static final String recordExt = ".checksum";
+    
+    /**
+     * The algorithms supported by the repositories, from the strongest to the weakest, and the extension of their checksum files.
+     */
+    public static final String[][] algorithms = {
+        {"SHA-512", ".sha512"},
+        {"SHA-256", ".sha256"},
+        {"SHA-1", Dependency.sha1Ext},
+        {"MD5", Dependency.md5Ext}
+    };
+    
+    /**
+     * The algorithm used when the repository doesn't provide any checksum.
+     */
+    public static final String defaultAlgorithm = "SHA-1";
+    
+    public final String algorithm;
+    public final String value;
+    
+    //The size and the modification date of the file when it was hashed, or -1 if unknown.
+    private long size = -1;
+    private long lastModified = -1;
+    
+    public Checksum(String algorithm, String value) {
+        this.algorithm = algorithm;
+        this.value = value.toLowerCase();
+    }
+    
+    public static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException ex) {
+            //Every java platform has to support MD5, SHA-1 and SHA-256, and SHA-512 is everywhere too.
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * Hash a local file.
+     * @param file The file to hash
+     * @param algorithm The digest algorithm
+     * @return The checksum of the file
+     * @throws IOException If the file can't be read
+     */
+    public static Checksum of(File file, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        try(InputStream in = new FileInputStream(file)) {
+            int read;
+            byte[] data = new byte[Utils.downloadBufferSize];
+            while ((read = in.read(data, 0, data.length)) != -1) {
+                digest.update(data, 0, read);
+            }
+        }
+        Checksum checksum = new Checksum(algorithm, Utils.hex(digest.digest()));
+        checksum.size = size;
+        checksum.lastModified = lastModified;
+        return checksum;
+    }
+    
+    /**
+     * Parse the content of a remote checksum file. 
+     * It can be only the digest, or the digest followed by the file name like with sha1sum.
+     * @param algorithm The algorithm of the checksum file
+     * @param content The content of the checksum file
+     * @return The checksum, or null if the content doesn't look like a digest of this algorithm.
+     */
+    public static Checksum parse(String algorithm, String content) {
+        String[] tokens = content.trim().split("\\s+");
+        String value = tokens[0];
+        if(value.length() != newDigest(algorithm).getDigestLength() * 2) {
+            return null;
+        }
+        for(int i = 0; i < value.length(); i++) {
+            if(Character.digit(value.charAt(i), 16) == -1) {
+                return null;
+            }
+        }
+        return new Checksum(algorithm, value);
+    }
+    
+    public boolean matches(Checksum other) {
+        return other != null && algorithm.equals(other.algorithm) && value.equals(other.value);
+    }
+    
+    /**
+     * @param file A local file
+     * @return If this checksum was computed from this file, and the file didn't change since.
+     */
+    public boolean describes(File file) {
+        return size != -1 && file.isFile() && file.length() == size && file.lastModified() == lastModified;
+    }
+    
+    /**
+     * Record this checksum next to the given file, with the current size and modification date of the file.
+     * @param file The file this checksum belongs to.
+     */
+    public void writeRecord(File file) {
+        size = file.isFile() ? file.length() : -1;
+        lastModified = file.isFile() ? file.lastModified() : -1;
+        try(PrintWriter pw = new PrintWriter(recordFile(file))) {
+            pw.write(algorithm + " " + value + " " + size + " " + lastModified + System.lineSeparator());
+        } catch (IOException ex) {}
+    }
+    
+    /**
+     * @param file A local file
+     * @return The checksum recorded next to this file, or null if there is none.
+     */
+    public static Checksum readRecord(File file) {
+        try(Scanner scanner = new Scanner(recordFile(file))) {
+            Checksum checksum = new Checksum(scanner.next(), scanner.next());
+            checksum.size = scanner.nextLong();
+            checksum.lastModified = scanner.nextLong();
+            return checksum;
+        } catch (FileNotFoundException | RuntimeException ex) {
+            return null;
+        }
+    }
+    
+    public static File recordFile(File file) {
+        return new File(file.getPath() + recordExt);
+    }
+    
+    @Override
+    public String toString() {
+        return algorithm + ":" + value;
+    }
+}
@@ -24,6 +24,7 @@ import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Calendar;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 import org.jdom2.Element;
@@ -49,9 +50,11 @@ public class Dependency {
     public final String version;
     public final File rootFolder;
     public final Callback callback;
+    public final Transport transport;
     
-    public Dependency(String groupId, String artifactId, String version, File rootFolder, Callback callback) {
+    public Dependency(String groupId, String artifactId, String version, File rootFolder, Callback callback, Transport transport) {
         this.callback = callback;
+        this.transport = transport;
         this.groupId = groupId;
         this.artifactId = artifactId;
         this.version = version;
@@ -61,21 +64,36 @@ public class Dependency {
         baseString = genBaseString();
         folder = genFolderFile();
         pom = genPomFile();
-        pomSHA1 = getPomSHA1File();
-        pomMD5 = genPomMD5File();
         preferedRepo = genPreferedRepoFile();
-        
-        pushProps();
+    }
+    
+    public Dependency(String groupId, String artifactId, String version, File rootFolder, Callback callback) {
+        this(groupId, artifactId, version, rootFolder, callback, new Transport());
+    }
+    
+    public Dependency(Element reference, File rootFolder, Callback callback, Namespace namespace, Transport transport) {
+        this(Utils.substituteMaven(reference.getChildText("groupId", namespace)), Utils.substituteMaven(reference.getChildText("artifactId", namespace)), Utils.substituteMaven(reference.getChildText("version", namespace)), rootFolder, callback, transport);
+    }
+    
+    /**
+     * @param reference The reference to the dependency, in a pom
+     * @param scope The properties of the pom, used to substitute the reference's variables
+     */
+    public Dependency(PomModel.Reference reference, PropertyScope scope, File rootFolder, Callback callback, Transport transport) {
+        this(scope.interpolate(reference.groupId), scope.interpolate(reference.artifactId), scope.interpolate(reference.version), rootFolder, callback, transport);
     }
     
     public Dependency(Element reference, File rootFolder, Callback callback, Namespace namespace) {
-        this(Utils.substituteMaven(reference.getChildText("groupId", namespace)), Utils.substituteMaven(reference.getChildText("artifactId", namespace)), Utils.substituteMaven(reference.getChildText("version", namespace)), rootFolder, callback);
+        this(reference, rootFolder, callback, namespace, new Transport());
     }
     
-    private void pushProps() {
-        System.setProperty("project.artifactId", artifactId);
-        System.setProperty("project.groupId", groupId);
-        System.setProperty("project.version", version);
+    /**
+     * Define the ${project.*} properties of this dependency in a scope.
+     */
+    void putProjectProperties(PropertyScope scope) {
+        scope.put("project.artifactId", artifactId);
+        scope.put("project.groupId", groupId);
+        scope.put("project.version", version);
     }
     
     @Override
@@ -103,16 +121,6 @@ public class Dependency {
         return new File(folder, baseString + pomExt);
     }
     
-    public final File pomMD5;
-    public final File genPomMD5File() {
-        return new File(folder, baseString + pomExt + md5Ext);
-    }
-    
-    public final File pomSHA1;
-    public final File getPomSHA1File() {
-        return new File(folder, baseString + pomExt + sha1Ext);
-    }
-    
     public final File preferedRepo;
     public final File genPreferedRepoFile() {
         return new File(folder, "_maven.repositories");
@@ -120,23 +128,39 @@ public class Dependency {
     
     public Repository source;
     public boolean genRemoteURLS(Repository repo) {
-        source = repo;
-        genRemoteFolderURL();
-        genRemotePomURL();
+        setSource(repo);
         
-        if(Utils.is404(remotePomURL)) {
+        if(remotePomURL == null || transport.is404(remotePomURL, this, source)) {
             source = null;
             remoteFolderURL = null;
             remotePomURL = null;
             return false;
         }
-            
-        genRemotePomMD5URL();
-        genRemotePomSHA1URL();
         
         return true;
     }
     
+    /**
+     * Use a repository for this dependency, without checking that the repository has it.
+     */
+    public void setSource(Repository repo) {
+        source = repo;
+        genRemoteFolderURL();
+        genRemotePomURL();
+    }
+    
+    /**
+     * @param repo A repository
+     * @return The url of the pom of this dependency in this repository, or null if the repository url is invalid.
+     */
+    public URL genRemotePomURL(Repository repo) {
+        try {
+            return new URL(repo.url + relativePath + baseString + pomExt);
+        } catch (MalformedURLException ex) {
+            return null;
+        }
+    }
+    
     public String remoteFolderURL;
     public void genRemoteFolderURL() {
         remoteFolderURL = source.url + relativePath;
@@ -144,49 +168,37 @@ public class Dependency {
     
     public URL remotePomURL;
     public void genRemotePomURL() {
-        try {
-            remotePomURL = new URL(remoteFolderURL + baseString + pomExt);
-        } catch (MalformedURLException ex) {}
+        remotePomURL = genRemotePomURL(source);
     }
     
-    public URL remotePomSHA1URL;
-    public boolean remotePomHasSHA1;
-    public void genRemotePomSHA1URL() {
-        try {
-            remotePomSHA1URL = new URL(remoteFolderURL + baseString + pomExt + sha1Ext);
-            remotePomHasSHA1 = !Utils.is404(remotePomSHA1URL);
-        } catch (MalformedURLException ex) {}
+    public void downloadPom() {
+        downloadPom(callback);
     }
     
-    public URL remotePomMD5URL;
-    public boolean remotePomHasMD5;
-    public void genRemotePomMD5URL() {
-        try {
-            remotePomMD5URL = new URL(remoteFolderURL + baseString + pomExt + md5Ext);
-            remotePomHasMD5 = !Utils.is404(remotePomMD5URL);
-        } catch (MalformedURLException ex) {}
+    public void downloadPom(Callback callback) {
+        transport.update(remotePomURL, pom, callback, this);
     }
     
-    
-    public void downloadPom() {
-        
-        if(!pom.exists() || (remotePomHasSHA1 && pomSHA1.exists() && !Utils.equals(remotePomSHA1URL, pomSHA1)) || (remotePomHasMD5 && pomMD5.exists() && !Utils.equals(remotePomMD5URL, pomMD5))) {
-            Utils.downloadURL(remotePomURL, pom, callback);
-            if(remotePomHasSHA1)
-                Utils.downloadURL(remotePomSHA1URL, pomSHA1, callback);
-            if(remotePomHasMD5)
-                Utils.downloadURL(remotePomMD5URL, pomMD5, callback);
+    final String mavenComment = "#NOTE: This is an internal implementation file, its format can be changed without prior notice.";
+    //The files the launcher keeps next to the artifacts. They don't come from a repository.
+    private static final String[] sidecarExts = {Checksum.recordExt, CacheValidators.ext, JarIndex.indexExt, JarRepacker.storedExt, 
+        PomCache.modelExt, Utils.partExt, Utils.rangeExt, JarPatch.patchExt, JarPatch.patchedExt};
+    
+    private static boolean isSidecar(String name) {
+        for(String ext: sidecarExts) {
+            if(name.endsWith(ext)) {
+                return true;
+            }
         }
-    
+        return false;
     }
     
-    final String mavenComment = "#NOTE: This is an internal implementation file, its format can be changed without prior notice.";
     public void updatePreferedRepoFile() {
         try(PrintWriter pw = new PrintWriter(preferedRepo)) {
             pw.write(mavenComment + System.lineSeparator() + "#" + Calendar.getInstance().getTime() + System.lineSeparator());
             File[] in = folder.listFiles();
             for(File f: in) {
-                if(!f.equals(preferedRepo)) {
+                if(!f.equals(preferedRepo) && !isSidecar(f.getName())) {
                     pw.write(f.getName() + ">" + source.id + "=" + System.lineSeparator());
                 }
             }
@@ -197,8 +209,9 @@ public class Dependency {
         try(Scanner scanner = new Scanner(preferedRepo)) {
             String current;
             while((current = scanner.nextLine()).startsWith("#"));
-            return current.substring(current.indexOf(">"), current.length()-1);
-        } catch (FileNotFoundException ex) {
+            //The lines are "file>repoId="
+            return current.substring(current.indexOf(">") + 1, current.length()-1);
+        } catch (FileNotFoundException | NoSuchElementException | IndexOutOfBoundsException ex) {
             return null;
         }
     }
@@ -17,8 +17,13 @@
 
 package fr.d4delta.launcher;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
 
 /**
  * A dependencyType is a class that will try to download a dependency.
@@ -26,14 +31,59 @@ import org.jdom2.Element;
  * @author d4delta
  */
 public abstract class DependencyType {
+    
+    /**
+     * The metrics of the launcher. It's set by the launcher before it uses this type.
+     */
+    public Metrics metrics = new Metrics();
+    
+    /**
+     * The properties the poms give to the application. It's set by the launcher before done is called.
+     */
+    public Map<String, String> applicationProperties = new HashMap<>();
+    
+    /**
+     * This method will try to use the DependencyType for a dependency.
+     * By default, it reads the pom with jdom and calls download(Dependency, Element, Callback), so the types written 
+     * before the pom model still work. New types should override this method instead.
+     * @param dependency The dependency you should test & download.
+     * @param pom The model of the dependency's pom
+     * @param callback The callback of the launcher
+     * @return If the dependency belong to this type
+     */
+    public boolean download(Dependency dependency, PomModel pom, Callback callback) {
+        Element rootPom;
+        try {
+            rootPom = new SAXBuilder().build(dependency.pom).getRootElement();
+        } catch (JDOMException | IOException ex) {
+            callback.pomLoadError(dependency, ex);
+            return false;
+        }
+        return download(dependency, rootPom, callback);
+    }
+    
     /**
      * This method will try to use the DependencyType for a dependency.
      * @param dependency The dependency you should test & download.
      * @param rootPom The root element of the dependency's xml
      * @param callback The callback of the launcher
      * @return If the dependency belong to this type
+     * @deprecated Override download(Dependency, PomModel, Callback) instead: the launcher doesn't read the poms with jdom anymore, 
+     * so the pom is parsed again, for each dependency, just to call this method.
      */
-    public abstract boolean download(Dependency dependency, Element rootPom, Callback callback);
+    @Deprecated
+    public boolean download(Dependency dependency, Element rootPom, Callback callback) {
+        throw new UnsupportedOperationException(getClass().getName() + " must override download(Dependency, PomModel, Callback)");
+    }
+    
+    /**
+     * This method may be called on a worker thread before download, to fetch the files of the dependency ahead of time.
+     * It should not register anything: download will still be called later, on the launcher thread.
+     * @param dependency The dependency you should fetch, if it belongs to this type.
+     * @param pom The model of the dependency's pom
+     * @param callback A callback that is not the launcher one. It throws on download errors.
+     */
+    public void prefetch(Dependency dependency, PomModel pom, Callback callback) {};
     
     /**
      * This method will be called when there is no more dependency to download.
@@ -41,4 +91,37 @@ public abstract class DependencyType {
      * @param dependencyTypes The dependency types of the launcher, to interact with them for example. 
      */
     public void done(Callback callback, List<DependencyType> dependencyTypes) {};
+    
+    /**
+     * This method is called after a successful resolution, to record what this type needs to be done without resolving again.
+     * @param lockfile The lockfile to write into.
+     * @return false if this type can't be recorded. In this case, no lockfile is written and the launcher will always resolve.
+     */
+    public boolean record(Lockfile lockfile) {
+        return false;
+    }
+    
+    /**
+     * @param lockfile The lockfile of the last resolution.
+     * @return If this type can be restored from the lockfile (for example, if all its files are still there).
+     */
+    public boolean canRestore(Lockfile lockfile) {
+        return false;
+    }
+    
+    /**
+     * Restore what was recorded in the lockfile, instead of downloading the dependencies.
+     * It is only called if canRestore returned true for every type.
+     * @param lockfile The lockfile of the last resolution.
+     */
+    public void restore(Lockfile lockfile) {};
+    
+    /**
+     * A new instance of this type, with the same settings and nothing downloaded or restored.
+     * It's used to update the application in the background (see Launcher.staleWhileRevalidate).
+     * @return The copy, or null if this type can't be copied. In this case, the launcher never updates in the background.
+     */
+    public DependencyType copy() {
+        return null;
+    }
 }
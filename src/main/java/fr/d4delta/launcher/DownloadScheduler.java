@@ -0,0 +1,196 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The download scheduler decides when the requests of a transport can go to the network.
+ * It caps the connections to each repository host and in total, and the bytes that are being downloaded at the same time.
+ * When requests have to wait, the small ones (probes, poms and checksums) go first, then the big files, the largest first, 
+ * so a big jar doesn't start last and make everybody wait for it.
+ * @author d4delta
+ */
+public class DownloadScheduler {
+    
+    /**
+     * The maximum number of requests to the same host at the same time.
+     */
+    public int maxPerHost = 4;
+    
+    /**
+     * The maximum number of requests at the same time, to all the hosts.
+     */
+    public int maxConnections = 8;
+    
+    /**
+     * The maximum number of bytes of the files that are downloaded at the same time.
+     * A file bigger than that is still downloaded, but alone.
+     */
+    public long maxInFlightBytes = 32L << 20;
+    
+    /**
+     * The size counted for a file whose size is unknown.
+     */
+    public long unknownSize = 1L << 20;
+    
+    /**
+     * The connection limits of some hosts (host or host:port), when they are not maxPerHost.
+     */
+    public final Map<String, Integer> hostLimits = new HashMap<>();
+    
+    /**
+     * Where the waits are counted.
+     */
+    public Metrics metrics = new Metrics();
+    
+    private final List<Permit> waiting = new ArrayList<>();
+    private final Map<String, Integer> connections = new HashMap<>();
+    private int inFlight;
+    private long inFlightBytes;
+    private long sequence;
+    
+    /**
+     * The right to send a request. It has to be released once the request is over.
+     */
+    public class Permit implements Comparable<Permit> {
+        final String host;
+        final boolean small;
+        final long size;
+        final long order;
+        boolean granted;
+        
+        Permit(String host, boolean small, long size, long order) {
+            this.host = host;
+            this.small = small;
+            this.size = size;
+            this.order = order;
+        }
+        
+        public void release() {
+            DownloadScheduler.this.release(this);
+        }
+        
+        @Override
+        public int compareTo(Permit o) {
+            if(small != o.small) {
+                return small ? -1 : 1;
+            }
+            if(!small && size != o.size) {
+                return size > o.size ? -1 : 1;
+            }
+            return Long.compare(order, o.order);
+        }
+    }
+    
+    /**
+     * Wait until a request can be sent.
+     * @param url The remote file
+     * @param size The size of the file if it's known, or -1.
+     * @return The permit, or null if the thread was interrupted while waiting.
+     */
+    public Permit acquire(URL url, long size) {
+        String kind = Metrics.kind(url.getPath());
+        boolean small = !kind.equals("jar") && !kind.equals("other") && !kind.equals("patch");
+        
+        synchronized(this) {
+            Permit permit = new Permit(host(url), small, small ? 0 : (size >= 0 ? size : unknownSize), sequence++);
+            waiting.add(permit);
+            Collections.sort(waiting);
+            dispatch();
+            if(permit.granted) {
+                return permit;
+            }
+            
+            metrics.count("scheduler.waits");
+            long start = System.nanoTime();
+            try {
+                while(!permit.granted) {
+                    wait();
+                }
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                if(permit.granted) {
+                    release(permit);
+                } else {
+                    waiting.remove(permit);
+                    //It may have been in the way of the others.
+                    dispatch();
+                }
+                return null;
+            } finally {
+                metrics.time("scheduler.wait", start);
+            }
+            return permit;
+        }
+    }
+    
+    private synchronized void release(Permit permit) {
+        inFlight--;
+        inFlightBytes -= permit.size;
+        connections.put(permit.host, connections.get(permit.host) - 1);
+        dispatch();
+    }
+    
+    /**
+     * Grant the waiting requests that can go, in the order of their priority.
+     * A request whose host is full lets the others pass, but a request that doesn't fit in the bytes budget stops the others,
+     * or the big files would never start.
+     */
+    private void dispatch() {
+        boolean granted = false;
+        for(int i = 0; i < waiting.size() && inFlight < maxConnections; i++) {
+            Permit permit = waiting.get(i);
+            Integer current = connections.get(permit.host);
+            if(current != null && current >= limit(permit.host)) {
+                continue;
+            }
+            if(inFlight > 0 && inFlightBytes + permit.size > maxInFlightBytes) {
+                break;
+            }
+            
+            waiting.remove(i--);
+            permit.granted = true;
+            granted = true;
+            inFlight++;
+            inFlightBytes += permit.size;
+            connections.put(permit.host, current == null ? 1 : current + 1);
+        }
+        if(granted) {
+            notifyAll();
+        }
+    }
+    
+    private int limit(String host) {
+        Integer limit = hostLimits.get(host);
+        if(limit == null) {
+            limit = hostLimits.get(host.substring(0, host.lastIndexOf(':')));
+        }
+        return limit != null ? limit : maxPerHost;
+    }
+    
+    private static String host(URL url) {
+        return url.getHost() + ":" + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+    }
+}
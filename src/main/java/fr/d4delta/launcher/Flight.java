@@ -0,0 +1,123 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * Emits the JDK Flight Recorder events of the launcher, if the JVM supports them (java 11, or 8u262 and later).
+ * Each begin method returns an event to give to the matching end method, or null if the event is not recorded:
+ * when there is no recording, nothing else is done.
+ * @author d4delta
+ */
+final class Flight {
+    
+    private Flight() {}
+    
+    /**
+     * The events, implemented by JfrEvents. It's only compiled with a JDK 11 or more,
+     * so it is loaded by its name: the launcher still builds and runs without it.
+     */
+    interface Recorder {
+        Object beginProbe();
+        void endProbe(Object event, String url, String artifact, String repository, String outcome);
+        Object beginDownload();
+        void endDownload(Object event, String url, String artifact, String repository, long bytes, String outcome);
+        Object beginPomParse();
+        void endPomParse(Object event, String pom, String artifact, long bytes, String outcome);
+        Object beginNativeExtraction();
+        void endNativeExtraction(Object event, String artifact, String pack, int written, int unchanged, String outcome);
+        Object beginMainClassLoading();
+        void endMainClassLoading(Object event, String mainClass, int jars, String outcome);
+    }
+    
+    //null if the JVM doesn't have jdk.jfr, or if the launcher was built without the events.
+    private static final Recorder recorder = load();
+    
+    private static Recorder load() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("fr.d4delta.launcher.JfrEvents").getDeclaredConstructor().newInstance();
+        } catch(ReflectiveOperationException | LinkageError | ClassCastException ex) {
+            return null;
+        }
+    }
+    
+    static String artifact(Dependency dependency) {
+        return dependency == null ? null : dependency.groupId + ":" + dependency.artifactId + ":" + dependency.version;
+    }
+    
+    static String repository(Repository repository) {
+        return repository == null ? null : repository.id;
+    }
+    
+    static Object beginProbe() {
+        return recorder != null ? recorder.beginProbe() : null;
+    }
+    
+    static void endProbe(Object event, URL url, Dependency dependency, Repository repository, Boolean exists) {
+        if(event != null) {
+            recorder.endProbe(event, url.toString(), artifact(dependency), repository(repository), exists == null ? "unknown" : exists ? "found" : "missing");
+        }
+    }
+    
+    static Object beginDownload() {
+        return recorder != null ? recorder.beginDownload() : null;
+    }
+    
+    static void endDownload(Object event, URL url, Dependency dependency, File destination, String outcome) {
+        if(event != null) {
+            recorder.endDownload(event, url.toString(), artifact(dependency), dependency != null ? repository(dependency.source) : null, destination.length(), outcome);
+        }
+    }
+    
+    static Object beginPomParse() {
+        return recorder != null ? recorder.beginPomParse() : null;
+    }
+    
+    /**
+     * @param model The parsed model, or null if the parse failed.
+     */
+    static void endPomParse(Object event, File pom, PomModel model) {
+        if(event != null) {
+            String artifact = model == null ? null : model.groupId + ":" + model.artifactId + ":" + model.version;
+            recorder.endPomParse(event, pom.getPath(), artifact, pom.length(), model != null ? "ok" : "failed");
+        }
+    }
+    
+    static Object beginNativeExtraction() {
+        return recorder != null ? recorder.beginNativeExtraction() : null;
+    }
+    
+    static void endNativeExtraction(Object event, Dependency dependency, File pack, int written, int unchanged, String outcome) {
+        if(event != null) {
+            recorder.endNativeExtraction(event, artifact(dependency), pack.getPath(), written, unchanged, outcome);
+        }
+    }
+    
+    static Object beginMainClassLoading() {
+        return recorder != null ? recorder.beginMainClassLoading() : null;
+    }
+    
+    static void endMainClassLoading(Object event, String mainClass, int jars, String outcome) {
+        if(event != null) {
+            recorder.endMainClassLoading(event, mainClass, jars, outcome);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The class loader of the application, when it's launched in the launcher JVM.
+ * Like an URLClassLoader, it finds the classes and resources in the jars, in the classpath order.
+ * But it only looks in the jars that have the folder of the class (see JarIndex), so a miss doesn't open every jar,
+ * and it's parallel capable, so the threads of the application don't wait for each other when they load different classes.
+ * @author d4delta
+ */
+public class IndexedClassLoader extends ClassLoader implements Closeable {
+    
+    static {
+        registerAsParallelCapable();
+    }
+    
+    private final JarIndex index;
+    private final Jar[] jars;
+    
+    /**
+     * A jar of the classpath, opened when a class or a resource is first read from it.
+     */
+    private static class Jar {
+        final File file;
+        final URL url;
+        //The base of the urls of its resources.
+        final URL base;
+        final ProtectionDomain[] domains = new ProtectionDomain[1];
+        private JarFile jarFile;
+        private Manifest manifest;
+        private boolean closed;
+        
+        Jar(File file) throws MalformedURLException {
+            this.file = file;
+            this.url = file.toURI().toURL();
+            this.base = new URL("jar:" + url + "!/");
+        }
+        
+        synchronized JarFile open() throws IOException {
+            if(closed) {
+                throw new IOException("The class loader is closed");
+            }
+            if(jarFile == null) {
+                jarFile = openJar(file);
+                manifest = jarFile.getManifest();
+            }
+            return jarFile;
+        }
+        
+        synchronized Manifest manifest() {
+            return manifest;
+        }
+        
+        synchronized void close() throws IOException {
+            closed = true;
+            if(jarFile != null) {
+                jarFile.close();
+            }
+        }
+    }
+    
+    //On java 9 and later, a jar is opened like URLClassLoader does: the entries of a multi-release jar are the ones of the running java.
+    private static final Constructor<JarFile> versionedJarFile = versionedJarFile();
+    private static final Object runtimeVersion = runtimeVersion();
+    
+    private static Constructor<JarFile> versionedJarFile() {
+        try {
+            return JarFile.class.getConstructor(File.class, boolean.class, int.class, Class.forName("java.lang.Runtime$Version"));
+        } catch(ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+    
+    private static Object runtimeVersion() {
+        try {
+            return Runtime.class.getMethod("version").invoke(null);
+        } catch(ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+    
+    private static final Method realName = realName();
+    
+    private static Method realName() {
+        try {
+            return JarEntry.class.getMethod("getRealName");
+        } catch(NoSuchMethodException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * @return The name of the entry in the jar: for a multi-release jar, the one in META-INF/versions/ that is used (java 10 and later).
+     */
+    private static String realName(ZipEntry entry) {
+        if(realName != null && entry instanceof JarEntry) {
+            try {
+                return (String) realName.invoke(entry);
+            } catch(ReflectiveOperationException ex) {}
+        }
+        return entry.getName();
+    }
+    
+    /**
+     * Open a jar of the classpath. Before java 9, the multi-release jars are read like any jar, like URLClassLoader does.
+     */
+    static JarFile openJar(File file) throws IOException {
+        if(versionedJarFile != null && runtimeVersion != null) {
+            try {
+                return versionedJarFile.newInstance(file, true, ZipFile.OPEN_READ, runtimeVersion);
+            } catch(InvocationTargetException ex) {
+                if(ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            } catch(ReflectiveOperationException ex) {}
+        }
+        return new JarFile(file);
+    }
+    
+    /**
+     * @param jars The jars of the classpath, in order. The jars of their manifest Class-Path are added after each of them.
+     * @param parent The parent class loader
+     * @param metrics Where the index work is measured
+     * @throws IOException If the classpath can't be indexed (see JarIndex): an URLClassLoader should be used instead.
+     */
+    public IndexedClassLoader(List<File> jars, ClassLoader parent, Metrics metrics) throws IOException {
+        super(parent);
+        long start = System.nanoTime();
+        this.index = new JarIndex(jars, metrics);
+        metrics.time("classpath.index", start);
+        List<File> classpath = index.classpath();
+        this.jars = new Jar[classpath.size()];
+        for(int i = 0; i < this.jars.length; i++) {
+            this.jars[i] = new Jar(classpath.get(i));
+        }
+    }
+    
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/') + ".class";
+        int[] candidates = index.jars(JarIndex.folder(path));
+        if(candidates != null) {
+            for(int i: candidates) {
+                Jar jar = jars[i];
+                try {
+                    JarFile jarFile = jar.open();
+                    JarEntry entry = jarFile.getJarEntry(path);
+                    if(entry != null) {
+                        return define(name, jar, jarFile, entry);
+                    }
+                } catch(IOException ex) {
+                    throw new ClassNotFoundException(name, ex);
+                }
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+    
+    private Class<?> define(String name, Jar jar, JarFile jarFile, JarEntry entry) throws IOException {
+        byte[] bytes;
+        try(InputStream in = jarFile.getInputStream(entry)) {
+            bytes = Utils.readFully(in);
+        }
+        
+        int dot = name.lastIndexOf('.');
+        if(dot != -1) {
+            definePackage(name.substring(0, dot), jar);
+        }
+        
+        //The signers are only known once the entry is read.
+        return defineClass(name, bytes, 0, bytes.length, domain(jar, entry.getCertificates()));
+    }
+    
+    private ProtectionDomain domain(Jar jar, Certificate[] certificates) {
+        if(certificates != null) {
+            return new ProtectionDomain(new CodeSource(jar.url, certificates), null, this, null);
+        }
+        synchronized(jar.domains) {
+            if(jar.domains[0] == null) {
+                jar.domains[0] = new ProtectionDomain(new CodeSource(jar.url, (Certificate[]) null), null, this, null);
+            }
+            return jar.domains[0];
+        }
+    }
+    
+    @SuppressWarnings("deprecation")
+    private void definePackage(String name, Jar jar) {
+        if(getPackage(name) != null) {
+            return;
+        }
+        
+        Manifest manifest = jar.manifest();
+        String specTitle = null, specVersion = null, specVendor = null, implTitle = null, implVersion = null, implVendor = null;
+        if(manifest != null) {
+            Attributes attributes = manifest.getMainAttributes();
+            specTitle = attributes.getValue(Attributes.Name.SPECIFICATION_TITLE);
+            specVersion = attributes.getValue(Attributes.Name.SPECIFICATION_VERSION);
+            specVendor = attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR);
+            implTitle = attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
+            implVersion = attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
+            implVendor = attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
+        }
+        try {
+            definePackage(name, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, null);
+        } catch(IllegalArgumentException ex) {
+            //Another thread defined it first.
+        }
+    }
+    
+    @Override
+    protected URL findResource(String name) {
+        List<URL> urls = find(name, true);
+        return urls.isEmpty() ? null : urls.get(0);
+    }
+    
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        return Collections.enumeration(find(name, false));
+    }
+    
+    private List<URL> find(String name, boolean first) {
+        int[] candidates = index.jars(JarIndex.folder(name));
+        if(candidates == null) {
+            return Collections.emptyList();
+        }
+        
+        List<URL> urls = new ArrayList<>(1);
+        String path = null;
+        for(int i: candidates) {
+            Jar jar = jars[i];
+            try {
+                ZipEntry entry = jar.open().getEntry(name);
+                if(entry != null) {
+                    if(path == null) {
+                        path = encode(name);
+                    }
+                    //Like URLClassLoader, the url of a versioned resource is the one of its real entry.
+                    String real = realName(entry);
+                    urls.add(new URL(jar.base, real.equals(name) ? path : encode(real)));
+                    if(first) {
+                        break;
+                    }
+                }
+            } catch(IOException ex) {}
+        }
+        return urls;
+    }
+    
+    /**
+     * Encode a path of a jar for its url, like URLClassLoader does: a resource can have spaces, '#' or '%' in its name.
+     * The '/' are kept, every byte that isn't allowed in a path segment is percent-encoded,
+     * and ':' too, so the path is never read as a protocol when it's resolved against the jar url.
+     */
+    static String encode(String path) {
+        //Most paths have nothing to encode.
+        int i = 0;
+        while(i < path.length() && allowed(path.charAt(i))) {
+            i++;
+        }
+        if(i == path.length()) {
+            return path;
+        }
+        
+        StringBuilder sb = new StringBuilder(path.length() + 16);
+        sb.append(path, 0, i);
+        for(byte b: path.substring(i).getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xFF;
+            if(allowed(c)) {
+                sb.append((char) c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(c >> 4, 16))).append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static boolean allowed(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || "/-._~!$&'()*+,;=@".indexOf(c) != -1;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for(Jar jar: jars) {
+            try {
+                jar.close();
+            } catch(IOException ex) {
+                failure = ex;
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
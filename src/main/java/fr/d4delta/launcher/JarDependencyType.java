@@ -17,15 +17,22 @@
 
 package fr.d4delta.launcher;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import org.jdom2.Element;
+import java.util.Map.Entry;
 
 /**
  * The jar dependency type will try to download a jar dependency, and add the jar to the classpath for loading.
@@ -43,80 +50,328 @@ public class JarDependencyType extends DependencyType {
     
     public List<URL> jarToLoad = new LinkedList<>();
     
+    /**
+     * The AppCDS archives, used if the delta.launcher.cds property is true: the application is then launched in a new JVM, like with delta.launcher.fork.
+     * Null to never use them.
+     */
+    public AppCds cds;
+    
+    /**
+     * If the application is loaded by an IndexedClassLoader (true by default), or by an URLClassLoader like before.
+     */
+    public boolean indexedClassLoader = true;
+    
     @Override
-    public boolean download(Dependency dependency, Element rootPom, Callback callback) {
+    public boolean download(Dependency dependency, PomModel pom, Callback callback) {
         
-        URL remoteJarURL = null;
+        RemoteJar remoteJar = RemoteJar.locate(dependency);
+        if(remoteJar == null)
+            return false;
         
-        URL remoteJarMD5URL = null;
-        boolean jarHasMD5 = false;
+        callback.dependencyJarNotification(dependency);
         
-        URL remoteJarSHA1URL = null;
-        boolean jarHasSHA1 = false;
+        remoteJar.update(callback);
         
         try {
-            
-            remoteJarURL = new URL(dependency.remoteFolderURL + dependency.baseString + jarExt);
-            
-            remoteJarMD5URL = new URL(dependency.remoteFolderURL + dependency.baseString + jarExt + Dependency.md5Ext);
-            jarHasMD5 = !Utils.is404(remoteJarMD5URL);
-            
-            remoteJarSHA1URL = new URL(dependency.remoteFolderURL + dependency.baseString + jarExt + Dependency.sha1Ext);
-            jarHasSHA1 = !Utils.is404(remoteJarSHA1URL);
-            
-            if(Utils.is404(remoteJarURL))
-                return false;
-            
-        } catch (MalformedURLException ex) {
-            return false;
+            jarToLoad.add(loadedFile(remoteJar.jar).toURI().toURL());
+        } catch (MalformedURLException ex) {}
+        
+        return true;
+    }
+    
+    @Override
+    public void prefetch(Dependency dependency, PomModel pom, Callback callback) {
+        RemoteJar remoteJar = RemoteJar.locate(dependency);
+        if(remoteJar != null && remoteJar.update(callback)) {
+            loadedFile(remoteJar.jar);
+        }
+    }
+    
+    /**
+     * @return The jar to load: the repacked copy if the delta.launcher.repack property is true, or the jar itself.
+     */
+    private File loadedFile(File jar) {
+        if(!Boolean.parseBoolean(System.getProperty("delta.launcher.repack"))) {
+            return jar;
         }
         
-        File jar = new File(dependency.folder, dependency.baseString + jarExt);
-        File jarMD5 = new File(dependency.folder, dependency.baseString + jarExt + Dependency.md5Ext);
-        File jarSHA1 = new File(dependency.folder, dependency.baseString + jarExt + Dependency.sha1Ext);
+        //The copy is only made from a verified jar.
+        Checksum checksum = Checksum.readRecord(jar);
+        if(checksum == null || !checksum.describes(jar)) {
+            return jar;
+        }
+        try {
+            return JarRepacker.repack(jar, checksum, metrics);
+        } catch(IOException ex) {
+            metrics.count("repack.failures");
+            return jar;
+        }
+    }
+    
+    /**
+     * The remote and local files of a jar dependency.
+     */
+    private static class RemoteJar {
         
-        callback.dependencyJarNotification(dependency);
+        URL remoteJarURL;
+        File jar;
+        Dependency dependency;
         
-        if(!jar.exists() || (jarHasMD5 && !Utils.equals(remoteJarMD5URL, jarMD5)) || (jarHasSHA1 && !Utils.equals(remoteJarSHA1URL, jarSHA1))) {
-            
-            jar.delete();
-            Utils.downloadURL(remoteJarURL, jar, callback);
+        static RemoteJar locate(Dependency dependency) {
+            RemoteJar r = new RemoteJar();
             
-            if(jarHasMD5) {
-                jarMD5.delete();
-                Utils.downloadURL(remoteJarMD5URL, jarMD5, callback);
-            }
-            
-            if(jarHasSHA1) {
-                jarSHA1.delete();
-                Utils.downloadURL(remoteJarSHA1URL, jarSHA1, callback);
+            try {
+                r.remoteJarURL = new URL(dependency.remoteFolderURL + dependency.baseString + jarExt);
+                if(dependency.transport.is404(r.remoteJarURL, dependency, dependency.source))
+                    return null;
+            } catch (MalformedURLException ex) {
+                return null;
             }
             
+            r.jar = new File(dependency.folder, dependency.baseString + jarExt);
+            r.dependency = dependency;
             
+            return r;
         }
         
-        try {
-            jarToLoad.add(jar.toURI().toURL());
-        } catch (MalformedURLException ex) {}
+        boolean update(Callback callback) {
+            //A new version: if we have an older one, a patch from it may be published.
+            File older = null;
+            URL patchURL = null;
+            if(!jar.isFile()) {
+                older = olderJar();
+                if(older != null) {
+                    try {
+                        patchURL = new URL(dependency.remoteFolderURL + JarPatch.fileName(dependency.artifactId, dependency.version, older.getParentFile().getName()));
+                    } catch (MalformedURLException ex) {
+                        older = null;
+                    }
+                }
+            }
+            return dependency.transport.update(remoteJarURL, jar, callback, dependency, older, patchURL);
+        }
         
-        return true;
+        /**
+         * @return The most recent jar of another version of the same artifact, in the root folder (or the seed of the transport), 
+         * that is still the one that was verified. Or null if there isn't any.
+         */
+        File olderJar() {
+            File older = null;
+            File artifactFolder = dependency.folder.getParentFile();
+            Transport transport = dependency.transport;
+            File seedFolder = transport.seed != null ? new File(transport.seed, dependency.groupId.replace('.', '/') + "/" + dependency.artifactId) : null;
+            for(File folder: new File[] {artifactFolder, seedFolder}) {
+                File[] versions = folder != null ? folder.listFiles() : null;
+                if(versions == null) {
+                    continue;
+                }
+                for(File version: versions) {
+                    if(version.getName().equals(dependency.version)) {
+                        continue;
+                    }
+                    File candidate = new File(version, dependency.artifactId + "-" + version.getName() + jarExt);
+                    Checksum record = Checksum.readRecord(candidate);
+                    if(record != null && record.describes(candidate) && (older == null || candidate.lastModified() > older.lastModified())) {
+                        older = candidate;
+                    }
+                }
+            }
+            return older;
+        }
     }
 
+    @Override
+    public DependencyType copy() {
+        JarDependencyType copy = new JarDependencyType(args);
+        copy.cds = cds;
+        copy.indexedClassLoader = indexedClassLoader;
+        return copy;
+    }
+    
+    public static final String lockKey = "jar.jars";
+    
+    @Override
+    public boolean record(Lockfile lockfile) {
+        List<String> jars = new ArrayList<>(jarToLoad.size());
+        for(URL jar: jarToLoad) {
+            jars.add(jar.toString());
+        }
+        lockfile.putList(lockKey, jars);
+        return true;
+    }
+    
+    @Override
+    public boolean canRestore(Lockfile lockfile) {
+        List<String> jars = lockfile.getList(lockKey);
+        if(jars == null) {
+            return false;
+        }
+        
+        try {
+            for(String jar: jars) {
+                if(!new File(new URL(jar).toURI()).isFile()) {
+                    return false;
+                }
+            }
+        } catch(MalformedURLException | URISyntaxException | IllegalArgumentException ex) {
+            return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public void restore(Lockfile lockfile) {
+        for(String jar: lockfile.getList(lockKey)) {
+            try {
+                jarToLoad.add(new URL(jar));
+            } catch (MalformedURLException ex) {}
+        }
+    }
+    
     @Override
     public void done(Callback callback, List<DependencyType> dependenciesTypes) {
-        URLClassLoader loader = new URLClassLoader(jarToLoad.toArray(new URL[jarToLoad.size()]));
         String mainClassPath = System.getProperty("delta.launcher.main");
         if(mainClassPath == null) {
             callback.noMainClassError();
+        } else if(Boolean.parseBoolean(System.getProperty("delta.launcher.fork")) || useCds()) {
+            fork(callback, mainClassPath, dependenciesTypes);
         } else {
+            ClassLoader loader = classLoader();
+            Object event = Flight.beginMainClassLoading();
             try {
+                long start = System.nanoTime();
                 Class mainClass = Class.forName(mainClassPath, true, loader);
                 Method main = mainClass.getMethod("main", String[].class);
+                metrics.time("main.lookup", start);
+                Flight.endMainClassLoading(event, mainClassPath, jarToLoad.size(), "ok");
+                event = null;
                 callback.readyToLaunchNotification(mainClassPath, mainClass, main);
                 main.invoke(null, (Object) args);
             } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
+                Flight.endMainClassLoading(event, mainClassPath, jarToLoad.size(), ex.getClass().getSimpleName());
                 callback.mainClassInvocationError(ex, mainClassPath);
             } 
         }
     }
+    
+    private ClassLoader classLoader() {
+        if(indexedClassLoader) {
+            List<File> jars = new ArrayList<>(jarToLoad.size());
+            for(URL jar: jarToLoad) {
+                File file = Utils.file(jar);
+                if(file == null) {
+                    jars = null;
+                    break;
+                }
+                jars.add(file);
+            }
+            if(jars != null) {
+                try {
+                    return new IndexedClassLoader(jars, ClassLoader.getSystemClassLoader(), metrics);
+                } catch(IOException ex) {
+                    //A jar can't be listed, or its Class-Path has folders: the URLClassLoader knows how to load them.
+                    metrics.count("classpath.index.failures");
+                }
+            }
+        }
+        return new URLClassLoader(jarToLoad.toArray(new URL[jarToLoad.size()]));
+    }
+    
+    private boolean useCds() {
+        return cds != null && Boolean.parseBoolean(System.getProperty("delta.launcher.cds")) && AppCds.isSupported();
+    }
+    
+    /**
+     * Launch the application in a new JVM, with the options of the delta.launcher.jvmArgs property 
+     * (and the AppCDS archive of its classpath if delta.launcher.cds is true), and wait for it.
+     * Its output and its exit code are sent to the callback.
+     */
+    private void fork(Callback callback, String mainClassPath, List<DependencyType> dependenciesTypes) {
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        
+        File archive = null;
+        boolean reused = false;
+        if(useCds()) {
+            archive = cds.archive(jarToLoad);
+            reused = archive.isFile();
+            metrics.count(reused ? "cds.archive.hits" : "cds.archive.misses");
+            command.addAll(cds.options(archive));
+        }
+        //After the launcher ones, so the pom can override them.
+        command.addAll(Utils.splitArguments(System.getProperty("delta.launcher.jvmArgs", "")));
+        
+        //The application gets what it would have in this JVM: the properties of the poms, and the natives.
+        for(Entry<String, String> e: applicationProperties.entrySet()) {
+            command.add("-D" + e.getKey() + "=" + e.getValue());
+        }
+        command.add("-Ddelta.launcher.main=" + mainClassPath);
+        StringBuilder libraryPath = new StringBuilder(System.getProperty("java.library.path", ""));
+        for(DependencyType t: dependenciesTypes) {
+            if(t instanceof NativeDependencyType) {
+                for(String path: ((NativeDependencyType) t).libraryPaths()) {
+                    libraryPath.append(File.pathSeparator).append(path);
+                }
+            }
+        }
+        command.add("-Djava.library.path=" + libraryPath);
+        
+        StringBuilder classpath = new StringBuilder();
+        for(URL jar: jarToLoad) {
+            File file = Utils.file(jar);
+            if(classpath.length() > 0) {
+                classpath.append(File.pathSeparator);
+            }
+            classpath.append(file != null ? file.getPath() : jar.toString());
+        }
+        command.add("-cp");
+        command.add(classpath.toString());
+        command.add(mainClassPath);
+        command.addAll(Arrays.asList(args));
+        
+        if(archive != null) {
+            callback.appCdsNotification(archive, reused);
+        }
+        callback.forkNotification(command);
+        try {
+            Process process = new ProcessBuilder(command).redirectInput(ProcessBuilder.Redirect.INHERIT).start();
+            Thread out = pipe(process.getInputStream(), callback, false);
+            Thread err = pipe(process.getErrorStream(), callback, true);
+            try {
+                int exitCode = process.waitFor();
+                out.join();
+                err.join();
+                callback.processExitNotification(exitCode);
+            } catch(InterruptedException ex) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+            }
+        } catch(IOException ex) {
+            callback.mainClassInvocationError(ex, mainClassPath);
+        }
+        
+        if(archive != null && !reused && cds.recorded(archive)) {
+            metrics.count("cds.archive.recorded");
+        }
+    }
+    
+    /**
+     * Send the lines of an output of the forked JVM to the callback, from a new thread.
+     */
+    private static Thread pipe(final InputStream in, final Callback callback, final boolean error) {
+        Thread thread = new Thread(error ? "DeltaLauncher-stderr" : "DeltaLauncher-stdout") {
+            @Override
+            public void run() {
+                try(BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+                    String line;
+                    while((line = reader.readLine()) != null) {
+                        callback.processOutputNotification(line, error);
+                    }
+                } catch(IOException ex) {}
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
 }
@@ -0,0 +1,246 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+/**
+ * The index of a classpath: for each package (each folder, in fact, so the resources are indexed too), the jars that contain it.
+ * The folders of a jar are listed once, then written next to it, and read from there as long as the jar doesn't change.
+ * Like with an URLClassLoader, the jars of the Class-Path of a jar manifest are in the classpath too, just after it.
+ * @author d4delta
+ */
+public class JarIndex {
+    
+    public static final String indexExt = ".packages";
+    
+    /**
+     * The folder of a class or resource path: "a/b/" for "a/b/C.class" or "a/b/c/", and "" for a file at the root.
+     */
+    public static String folder(String path) {
+        int end = path.endsWith("/") ? path.length() - 1 : path.length();
+        return path.substring(0, path.lastIndexOf('/', end - 1) + 1);
+    }
+    
+    private final Map<String, int[]> folders = new HashMap<>();
+    private final List<File> classpath = new ArrayList<>();
+    
+    //What is known of a jar: its folders, and the Class-Path of its manifest (or null).
+    private static class Listing {
+        final Set<String> folders = new LinkedHashSet<>();
+        String classPath;
+    }
+    
+    /**
+     * @param jars The jars of the classpath, in order.
+     * @param metrics Where the reused and listed jars are counted.
+     * @throws IOException If a jar can't be listed, or if a Class-Path has something else than jars (folders, remote urls...).
+     * The classpath can't be indexed then.
+     */
+    public JarIndex(List<File> jars, Metrics metrics) throws IOException {
+        Map<String, List<Integer>> index = new HashMap<>();
+        Set<File> seen = new HashSet<>();
+        for(File jar: jars) {
+            add(jar, index, seen, metrics);
+        }
+        
+        for(Map.Entry<String, List<Integer>> e: index.entrySet()) {
+            int[] array = new int[e.getValue().size()];
+            for(int i = 0; i < array.length; i++) {
+                array[i] = e.getValue().get(i);
+            }
+            folders.put(e.getKey(), array);
+        }
+    }
+    
+    private void add(File jar, Map<String, List<Integer>> index, Set<File> seen, Metrics metrics) throws IOException {
+        if(!seen.add(jar.getAbsoluteFile())) {
+            return;
+        }
+        int i = classpath.size();
+        classpath.add(jar);
+        
+        Listing listing = read(jar);
+        if(listing != null) {
+            metrics.count("classpath.index.hits");
+        } else {
+            metrics.count("classpath.index.misses");
+            long start = System.nanoTime();
+            try {
+                listing = list(jar);
+                write(jar, listing);
+            } finally {
+                metrics.time("classpath.index.list", start);
+            }
+        }
+        for(String folder: listing.folders) {
+            List<Integer> list = index.get(folder);
+            if(list == null) {
+                list = new ArrayList<>(1);
+                index.put(folder, list);
+            }
+            list.add(i);
+        }
+        
+        if(listing.classPath != null) {
+            //The entries are urls, relative to the jar. The ones that don't exist are ignored, like URLClassLoader does.
+            URL base = jar.toURI().toURL();
+            for(String entry: listing.classPath.trim().split("\\s+")) {
+                if(entry.isEmpty()) {
+                    continue;
+                }
+                File file;
+                try {
+                    URL url = new URL(base, entry);
+                    file = "file".equals(url.getProtocol()) ? Utils.file(url) : null;
+                } catch(MalformedURLException ex) {
+                    file = null;
+                }
+                if(file == null || file.isDirectory() || entry.endsWith("/")) {
+                    throw new IOException("Unsupported Class-Path entry in " + jar + ": " + entry);
+                }
+                if(file.isFile()) {
+                    add(file, index, seen, metrics);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return The indexed jars, in the order they are searched: the given ones, with the jars of their Class-Path.
+     */
+    public List<File> classpath() {
+        return Collections.unmodifiableList(classpath);
+    }
+    
+    /**
+     * @param folder A folder, like "a/b/"
+     * @return The indexes of the jars that contain files in this folder, in the classpath order, or null if there is none.
+     */
+    public int[] jars(String folder) {
+        return folders.get(folder);
+    }
+    
+    private static Listing list(File jar) throws IOException {
+        Listing listing = new Listing();
+        try(JarFile jarFile = new JarFile(jar, false)) {
+            Manifest manifest = jarFile.getManifest();
+            boolean multiRelease = false;
+            if(manifest != null) {
+                listing.classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+                multiRelease = "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+            }
+            
+            Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while(entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                listing.folders.add(folder(name));
+                //A class of a multi-release jar can be only in META-INF/versions/<version>/, it's loaded by its base name.
+                if(multiRelease && name.startsWith(versionsFolder)) {
+                    int slash = name.indexOf('/', versionsFolder.length());
+                    if(slash != -1) {
+                        listing.folders.add(folder(name.substring(slash + 1)));
+                    }
+                }
+            }
+        }
+        return listing;
+    }
+    
+    private static final String versionsFolder = "META-INF/versions/";
+    
+    private static File indexFile(File jar) {
+        return new File(jar.getPath() + indexExt);
+    }
+    
+    //The index file starts with the size and the date of the jar it was made from, and the format version, 
+    //then the Class-Path of its manifest (after "Class-Path:", empty if there is none), then one folder per line.
+    //The root folder is written as "/", so no line is empty.
+    
+    private static final int formatVersion = 2;
+    
+    private static final String classPathLine = "Class-Path:";
+    
+    private static Listing read(File jar) {
+        try(Scanner scanner = new Scanner(indexFile(jar), "UTF-8")) {
+            if(scanner.nextLong() != jar.length() || scanner.nextLong() != jar.lastModified()) {
+                return null;
+            }
+            if(!scanner.nextLine().trim().equals(String.valueOf(formatVersion))) {
+                return null;
+            }
+            String classPath = scanner.nextLine();
+            if(!classPath.startsWith(classPathLine)) {
+                return null;
+            }
+            Listing listing = new Listing();
+            classPath = classPath.substring(classPathLine.length());
+            listing.classPath = classPath.isEmpty() ? null : classPath;
+            while(scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+                listing.folders.add(line.equals("/") ? "" : line);
+            }
+            return listing;
+        } catch(FileNotFoundException | NoSuchElementException ex) {
+            return null;
+        }
+    }
+    
+    private static void write(File jar, Listing listing) {
+        File part = Utils.partFile(indexFile(jar));
+        try(PrintWriter pw = new PrintWriter(part, "UTF-8")) {
+            pw.write(jar.length() + " " + jar.lastModified() + " " + formatVersion + "\n");
+            pw.write(classPathLine + (listing.classPath == null ? "" : listing.classPath.replaceAll("\\s+", " ")) + "\n");
+            for(String folder: listing.folders) {
+                pw.write((folder.isEmpty() ? "/" : folder) + "\n");
+            }
+            if(pw.checkError()) {
+                throw new IOException("Cannot write " + part);
+            }
+        } catch(IOException ex) {
+            part.delete();
+            return;
+        }
+        try {
+            Utils.move(part, indexFile(jar));
+        } catch(IOException ex) {
+            part.delete();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The patches between two versions of a jar.
+ * A patch rebuilds the new jar byte for byte, so it can be verified with the checksum of the repository:
+ * the compressed data of the entries that didn't change is copied from the old jar, and everything else 
+ * (the entry headers, the changed entries, the central directory) is in the patch.
+ * 
+ * The patches are made on the deploy side, with the main method: 
+ * java -cp DeltaLauncher.jar fr.d4delta.launcher.JarPatch diff old.jar new.jar artifact-newVersion.from-oldVersion.patch
+ * and published next to the new jar.
+ * @author d4delta
+ */
+public class JarPatch {
+    
+    public static final String patchExt = ".patch";
+    
+    //The file a patch is applied to, before it is verified and moved over the destination.
+    public static final String patchedExt = ".patched";
+    
+    private static final int magic = 0x444c5031;
+    private static final int end = 0, copy = 1, data = 2;
+    private static final int maxData = 1 << 20;
+    
+    /**
+     * @return The name of the patch from a version of an artifact to another, in the folder of the new version.
+     */
+    public static String fileName(String artifactId, String version, String fromVersion) {
+        return artifactId + "-" + version + ".from-" + fromVersion + patchExt;
+    }
+    
+    /**
+     * The header of a patch.
+     */
+    public static class Header {
+        /**
+         * The SHA-1 of the jar the patch applies to, and of the jar it makes.
+         */
+        public final String base, target;
+        public final long targetLength;
+        
+        Header(String base, String target, long targetLength) {
+            this.base = base;
+            this.target = target;
+            this.targetLength = targetLength;
+        }
+    }
+    
+    /**
+     * A zip entry, as it is in the file.
+     */
+    private static class Entry {
+        String name;
+        long crc, compressedSize;
+        int method;
+        //The local header, the compressed data, then the data descriptor (if any) until the next entry.
+        long start, dataStart, end;
+    }
+    
+    /**
+     * Make the patch from a jar to another.
+     * @return The bytes of the new jar that are in the patch (and not copied from the old jar).
+     */
+    public static long diff(File from, File to, File patch) throws IOException {
+        long inline;
+        try(RandomAccessFile old = new RandomAccessFile(from, "r"); RandomAccessFile target = new RandomAccessFile(to, "r");
+                OpWriter out = new OpWriter(new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(patch)), Utils.downloadBufferSize)))) {
+            out.out.writeInt(magic);
+            out.out.writeUTF(Checksum.of(from, "SHA-1").value);
+            out.out.writeUTF(Checksum.of(to, "SHA-1").value);
+            out.out.writeLong(to.length());
+            
+            Map<String, Entry> byName = new HashMap<>();
+            Map<String, Entry> byContent = new HashMap<>();
+            for(Entry e: entries(old)) {
+                byName.put(e.name, e);
+                byContent.put(contentKey(e), e);
+            }
+            
+            List<Entry> entries = entries(target);
+            long position = 0;
+            for(Entry e: entries) {
+                out.data(target, position, e.dataStart);
+                
+                Entry same = byName.get(e.name);
+                if(same == null || !contentKey(same).equals(contentKey(e))) {
+                    same = byContent.get(contentKey(e));
+                }
+                if(same != null && sameBytes(old, same.dataStart, target, e.dataStart, e.compressedSize)) {
+                    out.copy(same.dataStart, e.compressedSize);
+                } else {
+                    out.data(target, e.dataStart, e.dataStart + e.compressedSize);
+                }
+                position = e.dataStart + e.compressedSize;
+            }
+            out.data(target, position, target.length());
+            out.finish();
+            inline = out.inline;
+        } catch(IOException ex) {
+            patch.delete();
+            throw ex;
+        }
+        return inline;
+    }
+    
+    private static String contentKey(Entry e) {
+        return e.crc + ":" + e.compressedSize + ":" + e.method;
+    }
+    
+    private static boolean sameBytes(RandomAccessFile a, long aStart, RandomAccessFile b, long bStart, long length) throws IOException {
+        byte[] bufferA = new byte[Utils.downloadBufferSize], bufferB = new byte[Utils.downloadBufferSize];
+        for(long done = 0; done < length;) {
+            int n = (int) Math.min(bufferA.length, length - done);
+            a.seek(aStart + done);
+            a.readFully(bufferA, 0, n);
+            b.seek(bStart + done);
+            b.readFully(bufferB, 0, n);
+            for(int i = 0; i < n; i++) {
+                if(bufferA[i] != bufferB[i]) {
+                    return false;
+                }
+            }
+            done += n;
+        }
+        return true;
+    }
+    
+    /**
+     * Writes the operations of a patch, and merges the ones that follow each other.
+     */
+    private static class OpWriter implements AutoCloseable {
+        final DataOutputStream out;
+        final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        long copyStart = -1, copyLength;
+        long inline;
+        
+        OpWriter(DataOutputStream out) {
+            this.out = out;
+        }
+        
+        void copy(long start, long length) throws IOException {
+            flushData();
+            if(copyStart != -1 && copyStart + copyLength == start) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyStart = start;
+            copyLength = length;
+        }
+        
+        void data(RandomAccessFile file, long start, long end) throws IOException {
+            if(end <= start) {
+                return;
+            }
+            flushCopy();
+            byte[] buffer = new byte[Utils.downloadBufferSize];
+            file.seek(start);
+            for(long remaining = end - start; remaining > 0;) {
+                int n = (int) Math.min(buffer.length, remaining);
+                file.readFully(buffer, 0, n);
+                pending.write(buffer, 0, n);
+                remaining -= n;
+                if(pending.size() >= maxData) {
+                    flushData();
+                }
+            }
+        }
+        
+        private void flushCopy() throws IOException {
+            if(copyStart != -1) {
+                out.writeByte(copy);
+                out.writeLong(copyStart);
+                out.writeLong(copyLength);
+                copyStart = -1;
+            }
+        }
+        
+        private void flushData() throws IOException {
+            if(pending.size() > 0) {
+                out.writeByte(data);
+                out.writeInt(pending.size());
+                pending.writeTo(out);
+                inline += pending.size();
+                pending.reset();
+            }
+        }
+        
+        /**
+         * Write the pending operations, and the end of the patch.
+         */
+        void finish() throws IOException {
+            flushData();
+            flushCopy();
+            out.writeByte(end);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+    
+    /**
+     * Read the header of a patch.
+     */
+    public static Header header(DataInputStream in) throws IOException {
+        if(in.readInt() != magic) {
+            throw new IOException("Not a patch");
+        }
+        return new Header(in.readUTF(), in.readUTF(), in.readLong());
+    }
+    
+    /**
+     * Apply a patch to a jar.
+     * @param from The old jar
+     * @param patch The patch
+     * @param out Where the new jar is written
+     * @return The header of the patch
+     * @throws IOException If the patch is invalid, or doesn't fit the old jar.
+     */
+    public static Header apply(File from, InputStream patch, OutputStream out) throws IOException {
+        return apply(from, null, patch, out);
+    }
+    
+    /**
+     * @param base The SHA-1 of the old jar, or null. If it's not the base of the patch, the patch is rejected before it's applied.
+     * @see #apply(File, InputStream, OutputStream)
+     */
+    public static Header apply(File from, Checksum base, InputStream patch, OutputStream out) throws IOException {
+        try(RandomAccessFile old = new RandomAccessFile(from, "r"); DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(patch, Utils.downloadBufferSize)))) {
+            Header header = header(in);
+            if(base != null && !base.matches(new Checksum("SHA-1", header.base))) {
+                throw new IOException("The patch is for " + header.base + ", not for " + from + " (" + base.value + ")");
+            }
+            byte[] buffer = new byte[Utils.downloadBufferSize];
+            long written = 0;
+            int op;
+            while((op = in.readUnsignedByte()) != end) {
+                if(op == copy) {
+                    long start = in.readLong(), length = in.readLong();
+                    if(start < 0 || length < 0 || start + length > old.length()) {
+                        throw new IOException("The patch doesn't fit " + from);
+                    }
+                    old.seek(start);
+                    for(long remaining = length; remaining > 0;) {
+                        int n = (int) Math.min(buffer.length, remaining);
+                        old.readFully(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                    written += length;
+                } else if(op == data) {
+                    int length = in.readInt();
+                    for(int remaining = length; remaining > 0;) {
+                        int n = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                        if(n == -1) {
+                            throw new IOException("Truncated patch");
+                        }
+                        out.write(buffer, 0, n);
+                        remaining -= n;
+                    }
+                    written += length;
+                } else {
+                    throw new IOException("Unknown patch operation " + op);
+                }
+            }
+            if(written != header.targetLength) {
+                throw new IOException("The patch made " + written + " bytes, " + header.targetLength + " expected.");
+            }
+            return header;
+        }
+    }
+    
+    /**
+     * Read the entries of a zip file, from its central directory, sorted by their position in the file.
+     */
+    private static List<Entry> entries(RandomAccessFile zip) throws IOException {
+        //The end of central directory record is in the last 22 bytes, plus the comment (65535 bytes at most).
+        int tailLength = (int) Math.min(zip.length(), 22 + 65535);
+        byte[] tail = new byte[tailLength];
+        zip.seek(zip.length() - tailLength);
+        zip.readFully(tail);
+        int eocd = -1;
+        for(int i = tailLength - 22; i >= 0; i--) {
+            if(u32(tail, i) == 0x06054b50L) {
+                eocd = i;
+                break;
+            }
+        }
+        if(eocd == -1) {
+            throw new IOException("Not a zip file");
+        }
+        int count = u16(tail, eocd + 10);
+        long cdSize = u32(tail, eocd + 12), cdOffset = u32(tail, eocd + 16);
+        if(count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            throw new IOException("Zip64 files are not supported");
+        }
+        
+        byte[] cd = new byte[(int) cdSize];
+        zip.seek(cdOffset);
+        zip.readFully(cd);
+        List<Entry> entries = new ArrayList<>(count);
+        byte[] local = new byte[30];
+        for(int p = 0, i = 0; i < count; i++) {
+            if(u32(cd, p) != 0x02014b50L) {
+                throw new IOException("Invalid central directory");
+            }
+            Entry e = new Entry();
+            e.method = u16(cd, p + 10);
+            e.crc = u32(cd, p + 16);
+            e.compressedSize = u32(cd, p + 20);
+            int nameLength = u16(cd, p + 28), extraLength = u16(cd, p + 30), commentLength = u16(cd, p + 32);
+            e.start = u32(cd, p + 42);
+            e.name = new String(cd, p + 46, nameLength, StandardCharsets.UTF_8);
+            p += 46 + nameLength + extraLength + commentLength;
+            
+            zip.seek(e.start);
+            zip.readFully(local);
+            if(u32(local, 0) != 0x04034b50L) {
+                throw new IOException("Invalid local header for " + e.name);
+            }
+            e.dataStart = e.start + 30 + u16(local, 26) + u16(local, 28);
+            entries.add(e);
+        }
+        
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(a.start, b.start);
+            }
+        });
+        for(int i = 0; i < entries.size(); i++) {
+            Entry e = entries.get(i);
+            e.end = i + 1 < entries.size() ? entries.get(i + 1).start : cdOffset;
+            if(e.dataStart + e.compressedSize > e.end) {
+                throw new IOException("Overlapping entries at " + e.name);
+            }
+        }
+        return entries;
+    }
+    
+    private static int u16(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8;
+    }
+    
+    private static long u32(byte[] b, int i) {
+        return (u16(b, i) | (long) u16(b, i + 2) << 16) & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * The deploy side tool.
+     * diff old.jar new.jar patch: make the patch from old.jar to new.jar.
+     * apply old.jar patch new.jar: apply a patch, to check it.
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length == 4 && args[0].equals("diff")) {
+            File from = new File(args[1]), to = new File(args[2]), patch = new File(args[3]);
+            long inline = diff(from, to, patch);
+            System.out.println(patch + ": " + patch.length() + " bytes for a jar of " + to.length() + " bytes (" + inline + " bytes not in " + from + ")");
+        } else if(args.length == 4 && args[0].equals("apply")) {
+            try(InputStream in = new FileInputStream(args[2]); OutputStream out = new BufferedOutputStream(new FileOutputStream(args[3]))) {
+                apply(new File(args[1]), in, out);
+            }
+            Header header;
+            try(DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(args[2])))) {
+                header = header(in);
+            }
+            boolean valid = Checksum.of(new File(args[3]), "SHA-1").value.equals(header.target);
+            System.out.println(args[3] + (valid ? " is valid." : " doesn't match the checksum of the patch!"));
+            if(!valid) {
+                System.exit(1);
+            }
+        } else {
+            System.err.println("Usage: JarPatch diff <old.jar> <new.jar> <patch>");
+            System.err.println("       JarPatch apply <old.jar> <patch> <new.jar>");
+            System.err.println("Publish the patch next to the new jar, named " + fileName("artifactId", "newVersion", "oldVersion"));
+            System.exit(2);
+        }
+    }
+}
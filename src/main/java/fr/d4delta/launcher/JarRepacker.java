@@ -0,0 +1,116 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Repack a jar with uncompressed (STORED) entries, next to it, so its classes don't have to be inflated on every launch.
+ * The entries, their order and their content are the same, so a signed jar is still valid.
+ * The repacked jar remembers (in its zip comment) the checksum of the jar it was made from: 
+ * the original stays the one that is verified against the repository, and the copy is made again when it changes.
+ * @author d4delta
+ */
+public class JarRepacker {
+    
+    public static final String storedExt = ".stored";
+    
+    private static final String commentPrefix = "DeltaLauncher repack of ";
+    
+    /**
+     * @param jar The original jar
+     * @return Where the repacked copy of the jar is.
+     */
+    public static File storedFile(File jar) {
+        return new File(jar.getPath() + storedExt);
+    }
+    
+    /**
+     * Get the repacked copy of a jar, and make it if it's not there or if it was made from another version of the jar.
+     * @param jar The original jar
+     * @param checksum The checksum of the original jar
+     * @param metrics Where the repacks are counted and timed
+     * @return The repacked jar
+     */
+    public static File repack(File jar, Checksum checksum, Metrics metrics) throws IOException {
+        File stored = storedFile(jar);
+        String comment = commentPrefix + checksum;
+        if(stored.isFile() && comment.equals(comment(stored))) {
+            metrics.count("repack.hits");
+            return stored;
+        }
+        
+        metrics.count("repack.misses");
+        long start = System.nanoTime();
+        File part = Utils.partFile(stored);
+        try(ZipFile in = new ZipFile(jar); ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(part), Utils.downloadBufferSize))) {
+            byte[] buffer = new byte[Utils.downloadBufferSize];
+            Enumeration<? extends ZipEntry> entries = in.entries();
+            while(entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                
+                //A STORED entry needs its sizes and crc before its data, the central directory of the original has them.
+                ZipEntry copy = new ZipEntry(entry.getName());
+                copy.setMethod(ZipEntry.STORED);
+                copy.setSize(entry.getSize());
+                copy.setCompressedSize(entry.getSize());
+                copy.setCrc(entry.getCrc());
+                copy.setTime(entry.getTime());
+                if(entry.getExtra() != null) {
+                    copy.setExtra(entry.getExtra());
+                }
+                if(entry.getComment() != null) {
+                    copy.setComment(entry.getComment());
+                }
+                
+                out.putNextEntry(copy);
+                try(InputStream entryIn = in.getInputStream(entry)) {
+                    int read;
+                    while((read = entryIn.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+            out.setComment(comment);
+        } catch(IOException | RuntimeException ex) {
+            part.delete();
+            throw ex instanceof IOException ? (IOException) ex : new IOException(ex);
+        }
+        Utils.move(part, stored);
+        metrics.time("repack", start);
+        return stored;
+    }
+    
+    private static String comment(File stored) {
+        try(ZipFile zip = new ZipFile(stored)) {
+            return zip.getComment();
+        } catch(IOException ex) {
+            return null;
+        }
+    }
+}
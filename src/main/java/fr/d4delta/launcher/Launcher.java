@@ -17,18 +17,34 @@
 
 package fr.d4delta.launcher;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import org.jdom2.Element;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.stream.XMLStreamException;
 import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
 
 /**
  * The launcher allows you to update and launch a maven java application.
@@ -41,13 +57,89 @@ public class Launcher extends Thread {
     private final Callback callback;
     private final String[] args;
     
-    private final Element root;
+    private final byte[] rootPom;
+    private final String rootFingerprint;
+    private PomModel root;
+    private Lockfile lockfile;
     
-    HashMap<String,Repository> repositories = new HashMap<>();
-    HashMap<String, Boolean> isLoaded = new HashMap<>();
+    /**
+     * The properties of the main pom, seen by the poms of the whole tree.
+     */
+    private final PropertyScope rootScope = new PropertyScope(null);
+    
+    /**
+     * The properties written in the System properties for the application, and recorded in the lockfile.
+     */
+    private final Map<String, String> loadedProperties = new LinkedHashMap<>();
+    private boolean resolutionFailed;
+    
+    ConcurrentHashMap<String,Repository> repositories = new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, Boolean> isLoaded = new ConcurrentHashMap<>();
     
     public List<DependencyType> types = new LinkedList<>();
     
+    /**
+     * The transport used to talk to the repositories. You can tune it (the probe cache durations for example) before launching.
+     */
+    public final Transport transport;
+    
+    /**
+     * The selector used to find which repository has a dependency. You can tune it before launching.
+     */
+    public final RepositorySelector repositorySelector;
+    
+    /**
+     * The metrics of the update: the time spent in each phase, for each repository and each artifact, the requests, the bytes and the cache hits.
+     * They're also given to the callback just before the launch.
+     */
+    public final Metrics metrics = new Metrics();
+    
+    /**
+     * The progress of the downloads, sent to the callback. You can tune its interval before launching.
+     */
+    public final Progress progress;
+    
+    /**
+     * The cache of the parsed poms.
+     */
+    public final PomCache pomCache = new PomCache();
+    
+    /**
+     * The repository used with the ones declared in the poms (maven central by default). Set it to null to use only the repositories of the poms.
+     */
+    public Repository defaultRepository = new Repository("central", "https://repo.maven.apache.org/maven2/");
+    
+    /**
+     * If true (the default), and if the main pom didn't change since the last successful resolution, 
+     * the application is launched from the lockfile, without resolving the dependencies again.
+     * A redeployed application or dependency is then only seen once the main pom changes: set it to false to check on every launch.
+     */
+    public boolean lockedLaunch = true;
+    
+    /**
+     * If true, and if there is a lockfile, the application is launched from it right away, even if the main pom changed, 
+     * and the dependencies are resolved on a background thread, into a staging folder (the files that didn't change are linked, not downloaded). 
+     * The update is promoted at the start of the next launch, and the callback is told when it's ready.
+     * The types must support copy(), or the launcher just resolves before launching, like without this mode.
+     */
+    public boolean staleWhileRevalidate = false;
+    
+    public static final String stagingFolderName = "_staging";
+    
+    //If this launcher is the background one of staleWhileRevalidate: it doesn't touch the System properties, and doesn't launch.
+    private boolean staging;
+    
+    /**
+     * The number of threads used to resolve the dependencies.
+     * With 1 (the default), the whole dependency tree is resolved on the launcher thread.
+     * With more, the poms and the files of the dependencies are fetched ahead of time by a pool of workers,
+     * but the tree is still walked in the same order, so the callback and the dependency types see the same events as with 1.
+     */
+    public int resolutionThreads = 1;
+    
+    private ExecutorService resolver;
+    private final ConcurrentHashMap<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+    
     /**
      * Main constructor of the launcher class.
      * @param rootFolder The folder where the dependecies will be downloaded (and loaded)
@@ -61,12 +153,28 @@ public class Launcher extends Thread {
         this.rootFolder = rootFolder;
         this.callback = callBack;
         this.args = args;
-        root = new SAXBuilder().build(source).getRootElement();
+        rootPom = Utils.readFully(source);
+        rootFingerprint = Utils.sha1(rootPom);
         rootFolder.mkdirs();
         
+        //If we'll launch from the lockfile, we don't even need to parse the pom.
+        lockfile = Lockfile.read(rootFolder);
+        if(lockfile == null || !rootFingerprint.equals(lockfile.getFingerprint())) {
+            root = parseRoot();
+        }
+        transport = new Transport(rootFolder);
+        transport.metrics = metrics;
+        transport.scheduler.metrics = metrics;
+        pomCache.metrics = metrics;
+        progress = new Progress(callBack);
+        transport.progress = progress;
+        repositorySelector = new RepositorySelector(rootFolder, transport);
+        
         //Adding only the dependency type that will not throw exception: 
         //If you want for example maven native support, add it to the types manually before launching the Launcher
-        types.add(new JarDependencyType(args));
+        JarDependencyType jars = new JarDependencyType(args);
+        jars.cds = new AppCds(rootFolder);
+        types.add(jars);
     }
     
     /**
@@ -110,138 +218,644 @@ public class Launcher extends Thread {
      */
     @Override
     public void run() {
-        repositories.put("central", new Repository("central", "http://central.maven.org/maven2/"));
-
-        Namespace rootNamespace = root.getNamespace();
-        loadProperties(root, rootNamespace);
-        registerRepositories(root, rootNamespace);
-        loadReferences(root, rootNamespace);
+        long start = System.nanoTime();
+        for(DependencyType t: types) {
+            t.metrics = metrics;
+        }
+        
+        if(staleWhileRevalidate && !staging) {
+            promote();
+            List<DependencyType> copies = copyTypes();
+            if(copies != null && restore(false)) {
+                metrics.time("phase.restore", start);
+                callback.lockedLaunchNotification(lockfile.file);
+                metrics.time("phase.update", start);
+                revalidate(copies);
+                launch();
+                return;
+            }
+        }
+        
+        if(lockedLaunch && restore(true)) {
+            metrics.time("phase.restore", start);
+            callback.lockedLaunchNotification(lockfile.file);
+            metrics.time("phase.update", start);
+            launch();
+            return;
+        }
+        
+        if(root == null) {
+            long parse = System.nanoTime();
+            try {
+                root = parseRoot();
+                metrics.time("phase.parse", parse);
+            } catch (JDOMException ex) {
+                callback.pomLoadError(null, ex);
+                return;
+            }
+        }
+        
+        if(defaultRepository != null) {
+            repositories.put(defaultRepository.id, defaultRepository);
+        }
 
-        launch();
+        if(resolutionThreads > 1) {
+            resolver = Executors.newFixedThreadPool(resolutionThreads, new ResolverThreadFactory());
+        }
+        
+        progress.start();
+        try {
+            if(root.groupId != null && root.artifactId != null && root.version != null) {
+                rootScope.put("project.groupId", rootScope.interpolate(root.groupId));
+                rootScope.put("project.artifactId", rootScope.interpolate(root.artifactId));
+                rootScope.put("project.version", rootScope.interpolate(root.version));
+            }
+            loadProperties(root, rootScope, true);
+            registerRepositories(root, rootScope);
+            
+            long phase = System.nanoTime();
+            Node rootNode = resolve(root);
+            metrics.time("phase.resolve", phase);
+            
+            phase = System.nanoTime();
+            download(rootNode);
+            metrics.time("phase.download", phase);
+        } finally {
+            if(resolver != null) {
+                resolver.shutdownNow();
+                resolver = null;
+            }
+            prefetches.clear();
+            progress.stop();
+            repositorySelector.shutdown();
+            repositorySelector.save();
+            transport.save();
+        }
+        
+        if(!resolutionFailed) {
+            record();
+        }
+        
+        metrics.time("phase.update", start);
+        if(!staging) {
+            launch();
+        }
     }
     
-    private void launch() {
-        for(int i = types.size()-1; i >= 0; i--) {
-            types.get(i).done(callback, types);
+    private List<DependencyType> copyTypes() {
+        List<DependencyType> copies = new LinkedList<>();
+        for(DependencyType t: types) {
+            DependencyType copy = t.copy();
+            if(copy == null) {
+                return null;
+            }
+            copies.add(copy);
         }
+        return copies;
     }
     
-    private void loadProperties(Element pom, Namespace namespace) {
-        List<Element> properties;
-        try {
-            properties = pom.getChild("properties").getChildren();
-            
-            for(Element e: properties) {
-                String[] res = callback.addingPropertyNotification(e.getName(), Utils.substituteMaven(e.getValue()));
-                if(res != null && res.length == 2) {
-                    System.setProperty(res[0], res[1]);
+    /**
+     * Resolve the dependencies in the staging folder, on a background thread, with a second launcher.
+     * If something changed, the update is kept for the next launch, otherwise the staging folder is deleted.
+     */
+    private void revalidate(final List<DependencyType> copies) {
+        final File stagingFolder = new File(rootFolder, stagingFolderName);
+        Thread thread = new Thread("DeltaLauncher-revalidate") {
+            @Override
+            public void run() {
+                try {
+                    Utils.purge(stagingFolder);
+                    stagingFolder.mkdirs();
+                    //What this launcher learned about the repositories is still true.
+                    for(String name: new String[] {Transport.probeCacheFile, RepositorySelector.statsFile}) {
+                        File file = new File(rootFolder, name);
+                        if(file.isFile()) {
+                            Files.copy(file.toPath(), new File(stagingFolder, name).toPath());
+                        }
+                    }
+                    
+                    //The default callback throws on download errors, so a failed download stops the update.
+                    Launcher update = new Launcher(stagingFolder, new ByteArrayInputStream(rootPom), new Callback(), args);
+                    update.staging = true;
+                    update.lockedLaunch = false;
+                    update.defaultRepository = defaultRepository;
+                    update.types = copies;
+                    update.resolutionThreads = resolutionThreads;
+                    update.transport.seed = rootFolder;
+                    update.transport.store = transport.store;
+                    update.run();
+                    
+                    Lockfile staged = Lockfile.read(stagingFolder);
+                    if(update.resolutionFailed || staged == null) {
+                        Utils.purge(stagingFolder);
+                        callback.backgroundUpdateError(new IOException("The dependencies could not be resolved."));
+                    } else if(staged.relocate(stagingFolder, rootFolder).sameAs(lockfile) && !changedRecords(stagingFolder, rootFolder)) {
+                        Utils.purge(stagingFolder);
+                    } else {
+                        callback.updateReadyNotification(stagingFolder);
+                    }
+                } catch(Exception ex) {
+                    Utils.purge(stagingFolder);
+                    callback.backgroundUpdateError(ex);
                 }
             }
-        } catch(NullPointerException ex) {}
+        };
+        thread.setDaemon(true);
+        thread.start();
     }
     
-    private void registerRepositories(Element pom, Namespace namespace) {
-        List<Element> repos;
-        try {
-            repos = pom.getChild("repositories", namespace).getChildren("repository", namespace);
-        } catch(NullPointerException ex) {
+    /**
+     * @return If a file of the staging folder is not the same as the one of the root folder, according to their checksum records.
+     * (A file can change without changing the lockfile: a jar redeployed with the same version, for example.)
+     */
+    private static boolean changedRecords(File from, File to) {
+        File[] files = from.listFiles();
+        if(files == null) {
+            return false;
+        }
+        for(File f: files) {
+            String name = f.getName();
+            if(f.isDirectory()) {
+                if(changedRecords(f, new File(to, name))) {
+                    return true;
+                }
+            } else if(name.endsWith(Checksum.recordExt)) {
+                String fileName = name.substring(0, name.length() - Checksum.recordExt.length());
+                Checksum staged = Checksum.readRecord(new File(from, fileName));
+                Checksum current = Checksum.readRecord(new File(to, fileName));
+                if(staged == null || current == null || !staged.matches(current)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Move the update that was downloaded in the background by the last launch into the root folder.
+     * The lockfile is moved last: until then, the launcher still uses the old one, and a promotion that was interrupted is done again.
+     */
+    private void promote() {
+        File stagingFolder = new File(rootFolder, stagingFolderName);
+        if(!stagingFolder.isDirectory()) {
             return;
-        }    
+        }
         
-        for(Element e: repos) {
-            String id = Utils.substituteMaven(e.getChildText("id", namespace));
-            String url = Utils.substituteMaven(e.getChildText("url", namespace));
-            callback.addingRepositoryNotification(id, url);
-            repositories.put(id,new Repository(id, url));
+        Lockfile staged = Lockfile.read(stagingFolder);
+        if(staged != null) {
+            try {
+                promote(stagingFolder, rootFolder, staged.file);
+                staged.relocate(stagingFolder, rootFolder).write();
+                lockfile = Lockfile.read(rootFolder);
+            } catch(IOException ex) {
+                //The old lockfile is still there, we'll try again next time.
+                return;
+            }
         }
+        Utils.purge(stagingFolder);
     }
     
-    private void loadReferences(Element root, Namespace namespace) {
-        List<Element> dependecies;
-        try {
-            dependecies = root.getChild("dependencies", namespace).getChildren("dependency", namespace);
-        } catch(NullPointerException ex) {
+    private static void promote(File from, File to, File skip) throws IOException {
+        File[] files = from.listFiles();
+        if(files == null) {
             return;
         }
+        for(File f: files) {
+            File target = new File(to, f.getName());
+            if(f.isDirectory()) {
+                target.mkdirs();
+                promote(f, target, skip);
+            } else if(!f.equals(skip)) {
+                Utils.move(f, target);
+            }
+        }
+    }
+    
+    private PomModel parseRoot() throws JDOMException {
+        try {
+            return PomModel.parse(new ByteArrayInputStream(rootPom));
+        } catch (XMLStreamException ex) {
+            //The constructors have always reported invalid poms with a JDOMException.
+            throw new JDOMException(ex.getMessage(), ex);
+        }
+    }
+    
+    /**
+     * @param sameRoot If the main pom has to be the one the lockfile was made from.
+     */
+    private boolean restore(boolean sameRoot) {
+        if(lockfile == null || (sameRoot && !rootFingerprint.equals(lockfile.getFingerprint()))) {
+            return false;
+        }
+        
+        for(DependencyType t: types) {
+            if(!t.canRestore(lockfile)) {
+                return false;
+            }
+        }
+        
+        for(Entry<String, String> e: lockfile.getProperties().entrySet()) {
+            System.setProperty(e.getKey(), e.getValue());
+            loadedProperties.put(e.getKey(), e.getValue());
+        }
+        if(lockfile.getMainClass() != null) {
+            System.setProperty("delta.launcher.main", lockfile.getMainClass());
+        }
         
-        for(Element e: dependecies) {
-            loadReference(e, namespace);
+        for(DependencyType t: types) {
+            t.restore(lockfile);
         }
+        return true;
     }
     
-    private boolean findRemote(Dependency dependency) {
+    private void record() {
+        Lockfile newLockfile = new Lockfile(rootFolder);
+        newLockfile.setFingerprint(rootFingerprint);
+        newLockfile.setProperties(loadedProperties);
+        String main = staging ? loadedProperties.get("delta.launcher.main") : System.getProperty("delta.launcher.main");
+        if(main != null) {
+            newLockfile.setMainClass(main);
+        }
         
-        String preferedId = dependency.getPreferedRepoId();
-        if(preferedId != null) {
-            Repository preferedRepo = repositories.get(preferedId);
-            if(preferedRepo != null && dependency.genRemoteURLS(preferedRepo)) {
-                return true;
+        for(DependencyType t: types) {
+            if(!t.record(newLockfile)) {
+                newLockfile.file.delete();
+                return;
             }
         }
         
-        Set<Entry<String,Repository>> entries = repositories.entrySet();
-        for(Entry<String, Repository> e: entries) {
-            if(dependency.genRemoteURLS(e.getValue())) {
-                return true;
+        try {
+            newLockfile.write();
+        } catch (IOException ex) {
+            newLockfile.file.delete();
+        }
+    }
+    
+    private void launch() {
+        callback.metricsNotification(metrics.snapshot());
+        for(DependencyType t: types) {
+            t.applicationProperties = loadedProperties;
+        }
+        for(int i = types.size()-1; i >= 0; i--) {
+            types.get(i).done(callback, types);
+        }
+    }
+    
+    /**
+     * Load the properties of a pom in its scope. They're interpolated in order, so a property can use the ones defined before it.
+     * @param export If the properties are also given to the application, with the System properties.
+     */
+    private void loadProperties(PomModel pom, PropertyScope scope, boolean export) {
+        for(Entry<String, String> e: pom.properties.entrySet()) {
+            String[] res = callback.addingPropertyNotification(e.getKey(), scope.interpolate(e.getValue()));
+            if(res != null && res.length == 2) {
+                scope.put(res[0], res[1]);
+                //The main pom is loaded first: a dependency never overrides what the main pom (or a dependency before it) gave to the application.
+                if(export && !loadedProperties.containsKey(res[0])) {
+                    if(!staging) {
+                        System.setProperty(res[0], res[1]);
+                    }
+                    loadedProperties.put(res[0], res[1]);
+                }
             }
         }
-        return false;
     }
     
-    private void loadReference(Element reference, Namespace namespace) {
+    private void registerRepositories(PomModel pom, PropertyScope scope) {
+        for(Repository r: pom.repositories) {
+            String id = scope.interpolate(r.id);
+            String url = scope.interpolate(r.url);
+            callback.addingRepositoryNotification(id, url);
+            repositories.put(id,new Repository(id, url));
+        }
+    }
+    
+    /**
+     * A dependency in the resolved graph.
+     */
+    private static class Node {
+        final Dependency dependency;
+        final Node parent;
+        //The "groupId:artifactId" excluded by this node and its parents. Both can be "*".
+        final Set<String> exclusions;
+        final List<Node> children = new ArrayList<>();
+        PomModel pom;
+        PropertyScope scope;
         
-        {
-            String scope = reference.getChildText("scope", namespace);
-            if(scope != null && (!scope.equals("runtime") || !scope.equals("compile")))
-                return;
+        Node(Dependency dependency, Node parent, Set<String> exclusions) {
+            this.dependency = dependency;
+            this.parent = parent;
+            this.exclusions = exclusions;
+        }
+        
+        boolean excludes(Dependency dependency) {
+            return exclusions.contains(dependency.groupId + ":" + dependency.artifactId) || exclusions.contains(dependency.groupId + ":*") 
+                    || exclusions.contains("*:" + dependency.artifactId) || exclusions.contains("*:*");
+        }
+        
+        void preorder(List<Node> order) {
+            for(Node child: children) {
+                order.add(child);
+                child.preorder(order);
+            }
+        }
+    }
+    
+    /**
+     * Resolve the dependency graph, by loading only the poms. 
+     * The graph is walked breadth-first, so when several versions of an artifact are found, the nearest one wins 
+     * (and the first declared one if they are at the same depth), and the others are not even loaded.
+     * @return The root of the resolved tree.
+     */
+    private Node resolve(PomModel root) {
+        Node rootNode = new Node(null, null, Collections.<String>emptySet());
+        rootNode.pom = root;
+        rootNode.scope = rootScope;
+        
+        Map<String, Node> selected = new HashMap<>();
+        Set<String> seen = new HashSet<>();
+        Deque<Node> queue = new ArrayDeque<>(references(rootNode, seen));
+        
+        while(!queue.isEmpty()) {
+            Node node = queue.poll();
+            String artifact = node.dependency.groupId + ":" + node.dependency.artifactId;
+            if(selected.containsKey(artifact)) {
+                continue;
+            }
             
-            String optional = reference.getChildText("optional", namespace);
-            if(optional != null && optional.equals("true"))
-                return;
+            if(loadPom(node)) {
+                selected.put(artifact, node);
+                node.parent.children.add(node);
+                queue.addAll(references(node, seen));
+            }
         }
         
-        Dependency dependency = new Dependency(reference, rootFolder, callback, namespace);
+        return rootNode;
+    }
+    
+    /**
+     * @param seen The artifacts (groupId:artifactId) already queued. Only the first version queued for an artifact is prefetched:
+     * the queue is walked in order, so it's the one that wins, and the others are never loaded.
+     * @return The dependencies declared by the node's pom, without the ones that are excluded, optional, or not needed at runtime.
+     */
+    private List<Node> references(Node node, Set<String> seen) {
+        List<Node> references = new ArrayList<>(node.pom.references.size());
+        for(PomModel.Reference e: node.pom.references) {
+            
+            //Only the compile and runtime scopes are needed to run the application.
+            String scope = node.scope.interpolate(e.scope);
+            if(scope != null && !scope.equals("compile") && !scope.equals("runtime"))
+                continue;
+            
+            //Optional dependencies are only used if the main pom asks for them.
+            String optional = node.scope.interpolate(e.optional);
+            if(node.dependency != null && optional != null && optional.equals("true"))
+                continue;
+            
+            //The variables are the ones of the pom that declares the dependency.
+            Dependency dependency = new Dependency(e, node.scope, rootFolder, callback, transport);
+            if(node.excludes(dependency))
+                continue;
+            
+            Set<String> exclusions = node.exclusions;
+            if(!e.exclusions.isEmpty()) {
+                exclusions = new HashSet<>(exclusions);
+                for(String exclusion: e.exclusions) {
+                    exclusions.add(node.scope.interpolate(exclusion));
+                }
+            }
+            
+            if(seen.add(dependency.groupId + ":" + dependency.artifactId) && resolver != null) {
+                prefetch(dependency);
+            }
+            references.add(new Node(dependency, node, exclusions));
+        }
+        return references;
+    }
+    
+    /**
+     * Select the repository of a dependency, and download its pom from it.
+     * If the pom is not there anymore, or the repository can't be reached (its probe was cached), 
+     * the probe is forgotten and the dependency is looked up again in the other repositories.
+     * @param callback Told about the download errors that another repository couldn't solve
+     * @return false if no repository has the dependency.
+     */
+    private boolean fetchPom(Dependency dependency, Callback callback) {
+        Map<String, Repository> candidates = new HashMap<>(repositories);
+        PomFailure failure = null;
+        while(true) {
+            Repository repository = repositorySelector.select(dependency, candidates.values());
+            if(repository == null) {
+                if(failure != null) {
+                    callback.downloadError(failure.cause, failure.url, failure.destination);
+                }
+                return false;
+            }
+            
+            dependency.setSource(repository);
+            failure = new PomFailure();
+            if(transport.update(dependency.remotePomURL, dependency.pom, failure, dependency) || failure.cause == null) {
+                return true;
+            }
+            if(!Transport.isUnavailable(failure.cause)) {
+                callback.downloadError(failure.cause, failure.url, failure.destination);
+                return true;
+            }
+            metrics.count("repository.failovers");
+            candidates.remove(repository.id);
+        }
+    }
+    
+    /**
+     * Keeps the download error of a pom, so the other repositories can be tried before it's reported.
+     */
+    private static class PomFailure extends Callback {
+        IOException cause;
+        URL url;
+        File destination;
         
-        if(isLoaded.get(dependency.groupId + dependency.artifactId + dependency.version) != null) {
-            return;
+        @Override
+        public void downloadError(IOException cause, URL originURL, File destination) {
+            this.cause = cause;
+            this.url = originURL;
+            this.destination = destination;
         }
+    }
+    
+    private static String artifact(Dependency dependency) {
+        return "artifact." + dependency.groupId + ":" + dependency.artifactId + ":" + dependency.version;
+    }
+    
+    private static String key(Dependency dependency) {
+        return dependency.groupId + dependency.artifactId + dependency.version;
+    }
+    
+    /**
+     * Find and load the pom of a node, with its properties and repositories.
+     * @return false if the pom is unavailable.
+     */
+    private boolean loadPom(Node node) {
+        Dependency dependency = node.dependency;
+        long start = System.nanoTime();
         
         callback.loadingDependencyNotification(dependency);
         
-        if(!findRemote(dependency)) {
-            callback.dependencyUnavailableError(dependency);
+        //If a worker already fetched this pom, we reuse its work.
+        //If it failed, we do it again here, so the errors are reported to the callback in the right order.
+        Prefetch prefetch = prefetches.get(key(dependency));
+        PomModel pom = prefetch != null ? prefetch.join() : null;
+        if(pom != null) {
+            metrics.count("cache.prefetch.hits");
+            dependency.setSource(prefetch.dependency.source);
         } else {
-            downloadDependency(dependency);
+            if(!fetchPom(dependency, callback)) {
+                resolutionFailed = true;
+                callback.dependencyUnavailableError(dependency);
+                return false;
+            }
+            
+            try {
+                pom = pomCache.load(dependency.pom);
+            } catch (XMLStreamException | IOException ex) {
+                resolutionFailed = true;
+                callback.pomLoadError(dependency, ex);
+                Utils.purge(dependency.folder);
+                return false;
+            }
         }
+        
+        node.pom = pom;
+        
+        //A pom sees its own properties, then the ones of the pom that declared it.
+        //Only the properties of the main pom and of its dependencies (the application) are given to the application.
+        node.scope = new PropertyScope(node.parent.scope);
+        dependency.putProjectProperties(node.scope);
+        loadProperties(pom, node.scope, node.parent.dependency == null);
+        registerRepositories(pom, node.scope);
+        
+        metrics.count("artifacts.resolved");
+        metrics.time(artifact(dependency) + ".pom", start);
+        return true;
     }
     
-    private void downloadDependency(Dependency dependency)  {
+    /**
+     * Let the dependency types download the resolved dependencies, in the order of the tree.
+     */
+    private void download(Node rootNode) {
+        List<Node> order = new ArrayList<>();
+        rootNode.preorder(order);
+        //The poms are already there: only the dependencies that have files are planned.
+        for(Node node: order) {
+            if(!"pom".equals(node.pom.packaging)) {
+                progress.plan(node.dependency.folder);
+            }
+        }
         
-        dependency.downloadPom();
+        //The files are fetched by the workers, and the types are called in order once their dependency is fetched.
+        List<FutureTask<Void>> fetches = new ArrayList<>(order.size());
+        if(resolver != null) {
+            for(Node node: order) {
+                FutureTask<Void> fetch = new FutureTask<>(new FilePrefetch(node));
+                fetches.add(fetch);
+                resolver.execute(fetch);
+            }
+        }
         
-        Element pomRoot;
+        for(int i = 0; i < order.size(); i++) {
+            if(resolver != null) {
+                join(fetches.get(i));
+            }
+            
+            Node node = order.get(i);
+            long start = System.nanoTime();
+            for(DependencyType t: types) {
+                if(t.download(node.dependency, node.pom, callback)) {
+                    node.dependency.updatePreferedRepoFile();
+                    isLoaded.put(key(node.dependency), Boolean.TRUE);
+                    break;
+                }
+            }
+            metrics.time(artifact(node.dependency) + ".files", start);
+            progress.settle(node.dependency.folder);
+        }
+    }
+    
+    private static <T> T join(FutureTask<T> task) {
         try {
-            pomRoot = new SAXBuilder().build(dependency.pom).getRootElement();
-        } catch (JDOMException | IOException ex) {
-            callback.pomLoadError(dependency, ex);
-            Utils.purge(dependency.folder);
-            return;
+            return task.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch(ExecutionException ex) {
+            return null;
+        }
+    }
+    
+    private void prefetch(Dependency dependency) {
+        Prefetch prefetch = new Prefetch(dependency);
+        if(prefetches.putIfAbsent(key(dependency), prefetch) == null) {
+            resolver.execute(prefetch.task);
         }
-        Namespace namespace = pomRoot.getNamespace();
+    }
+    
+    /**
+     * Fetch the pom of a dependency on a worker thread: find its repository, download and parse the pom.
+     * Nothing is sent to the launcher callback from here: if something goes wrong, the launcher thread will just do the work again.
+     */
+    private class Prefetch implements Callable<PomModel> {
         
+        final Dependency dependency;
+        final FutureTask<PomModel> task = new FutureTask<>(this);
         
-        loadProperties(pomRoot, namespace);
-        registerRepositories(pomRoot, namespace);
+        Prefetch(Dependency dependency) {
+            this.dependency = dependency;
+        }
         
-        for(DependencyType t: types) {
-            if(t.download(dependency, pomRoot, callback)) {
-                dependency.updatePreferedRepoFile();
-                isLoaded.put(dependency.groupId+dependency.artifactId+dependency.version, Boolean.TRUE);
-                loadReferences(pomRoot, namespace);
-                return;
+        @Override
+        public PomModel call() throws Exception {
+            //The default callback throws on download errors, so a failed download fails the prefetch.
+            if(!fetchPom(dependency, new Callback())) {
+                return null;
             }
+            return pomCache.load(dependency.pom);
+        }
+        
+        PomModel join() {
+            return Launcher.join(task);
+        }
+    }
+    
+    /**
+     * Let the types fetch the files of a resolved dependency on a worker thread.
+     * Like for the poms, the failures are silent: the type will do it again when it's called by the launcher thread.
+     */
+    private class FilePrefetch implements Callable<Void> {
+        
+        final Node node;
+        
+        FilePrefetch(Node node) {
+            this.node = node;
+        }
+        
+        @Override
+        public Void call() {
+            for(DependencyType t: types) {
+                t.prefetch(node.dependency, node.pom, new Callback());
+            }
+            return null;
+        }
+    }
+    
+    private static class ResolverThreadFactory implements ThreadFactory {
+        
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DeltaLauncher-resolver-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
-            
     }
     
 }
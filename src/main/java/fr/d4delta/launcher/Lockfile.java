@@ -0,0 +1,179 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+/**
+ * The lockfile contains everything needed to launch the application again without resolving the dependencies:
+ * the fingerprint of the main pom it was resolved from, the properties, the main class, and what each dependency type recorded.
+ * @author d4delta
+ */
+public class Lockfile {
+    
+    public static final String fileName = "_launcher.lock";
+    
+    private static final String fingerprintKey = "fingerprint";
+    private static final String mainKey = "main";
+    private static final String propertyPrefix = "property.";
+    
+    public final File file;
+    private final Properties content = new Properties();
+    
+    public Lockfile(File rootFolder) {
+        file = new File(rootFolder, fileName);
+    }
+    
+    /**
+     * @param rootFolder The launcher root folder
+     * @return The lockfile of this folder, or null if there is none (or if it can't be read)
+     */
+    public static Lockfile read(File rootFolder) {
+        Lockfile lockfile = new Lockfile(rootFolder);
+        try(InputStream in = new FileInputStream(lockfile.file)) {
+            lockfile.content.load(in);
+            return lockfile;
+        } catch(IOException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+    
+    public void write() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try(OutputStream out = new FileOutputStream(temp)) {
+            content.store(out, "NOTE: This is an internal implementation file, its format can be changed without prior notice.");
+        }
+        //Moved over the old one, so a launcher always reads a whole lockfile.
+        Utils.move(temp, file);
+    }
+    
+    /**
+     * Copy this lockfile for another root folder: the paths and urls of the files of this folder are replaced by the ones of the other folder.
+     * @param from The root folder of this lockfile
+     * @param to The other root folder
+     * @return The new lockfile, that is not written yet.
+     */
+    public Lockfile relocate(File from, File to) {
+        String fromPath = from.getAbsolutePath() + File.separator, toPath = to.getAbsolutePath() + File.separator;
+        String fromURI = from.getAbsoluteFile().toURI().toString(), toURI = to.getAbsoluteFile().toURI().toString();
+        if(!fromURI.endsWith("/")) {
+            fromURI += "/";
+            toURI += toURI.endsWith("/") ? "" : "/";
+        }
+        
+        Lockfile relocated = new Lockfile(to);
+        for(String key: content.stringPropertyNames()) {
+            String value = content.getProperty(key).replace(fromURI, toURI).replace(fromPath, toPath);
+            if(value.equals(from.getAbsolutePath())) {
+                value = to.getAbsolutePath();
+            }
+            relocated.content.setProperty(key, value);
+        }
+        return relocated;
+    }
+    
+    /**
+     * @return If the other lockfile records exactly the same things as this one.
+     */
+    public boolean sameAs(Lockfile other) {
+        return other != null && content.equals(other.content);
+    }
+    
+    public String getFingerprint() {
+        return content.getProperty(fingerprintKey);
+    }
+    
+    public void setFingerprint(String fingerprint) {
+        content.setProperty(fingerprintKey, fingerprint);
+    }
+    
+    public String getMainClass() {
+        return content.getProperty(mainKey);
+    }
+    
+    public void setMainClass(String mainClass) {
+        content.setProperty(mainKey, mainClass);
+    }
+    
+    public Map<String, String> getProperties() {
+        Map<String, String> properties = new HashMap<>();
+        for(String key: content.stringPropertyNames()) {
+            if(key.startsWith(propertyPrefix)) {
+                properties.put(key.substring(propertyPrefix.length()), content.getProperty(key));
+            }
+        }
+        return properties;
+    }
+    
+    public void setProperties(Map<String, String> properties) {
+        for(Entry<String, String> e: properties.entrySet()) {
+            content.setProperty(propertyPrefix + e.getKey(), e.getValue());
+        }
+    }
+    
+    /**
+     * Used by the dependency types to record their own data.
+     * Keys should be prefixed by something unique to the type.
+     */
+    public void put(String key, String value) {
+        content.setProperty(key, value);
+    }
+    
+    public String get(String key) {
+        return content.getProperty(key);
+    }
+    
+    public void putList(String key, List<String> values) {
+        content.setProperty(key + ".size", String.valueOf(values.size()));
+        for(int i = 0; i < values.size(); i++) {
+            content.setProperty(key + "." + i, values.get(i));
+        }
+    }
+    
+    /**
+     * @return The list recorded with putList, or null if there is no such list.
+     */
+    public List<String> getList(String key) {
+        try {
+            int size = Integer.parseInt(content.getProperty(key + ".size"));
+            List<String> values = new ArrayList<>(size);
+            for(int i = 0; i < size; i++) {
+                String value = content.getProperty(key + "." + i);
+                if(value == null) {
+                    return null;
+                }
+                values.add(value);
+            }
+            return values;
+        } catch(NumberFormatException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a launcher: named counters, and named latency histograms.
+ * The names are hierarchical, like "requests.pom", "phase.resolve", "repository.central" or "artifact.org.example:a:1.0.pom".
+ * It's fed by the launcher, its transport, its pom cache and its dependency types, from any thread.
+ * Take a snapshot to export them.
+ * @author d4delta
+ */
+public class Metrics {
+    
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    
+    public void count(String name) {
+        add(name, 1);
+    }
+    
+    public void add(String name, long value) {
+        AtomicLong counter = counters.get(name);
+        if(counter == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            counter = counters.get(name);
+        }
+        counter.addAndGet(value);
+    }
+    
+    /**
+     * Record the duration of something.
+     * @param name The name of the histogram
+     * @param start The System.nanoTime() when it started
+     */
+    public void time(String name, long start) {
+        record(name, System.nanoTime() - start);
+    }
+    
+    /**
+     * @param name The name of the histogram
+     * @param nanos A duration, in nanoseconds
+     */
+    public void record(String name, long nanos) {
+        Histogram histogram = histograms.get(name);
+        if(histogram == null) {
+            histograms.putIfAbsent(name, new Histogram());
+            histogram = histograms.get(name);
+        }
+        histogram.record(nanos);
+    }
+    
+    /**
+     * @return The kind of request needed to get a remote file: "pom", "jar", "patch", "checksum" or "other".
+     */
+    public static String kind(String url) {
+        if(url.endsWith(Dependency.pomExt)) {
+            return "pom";
+        } else if(url.endsWith(JarDependencyType.jarExt)) {
+            return "jar";
+        } else if(url.endsWith(JarPatch.patchExt)) {
+            return "patch";
+        }
+        for(String[] algorithm: Checksum.algorithms) {
+            if(url.endsWith(algorithm[1])) {
+                return "checksum";
+            }
+        }
+        return "other";
+    }
+    
+    public Snapshot snapshot() {
+        Map<String, Long> c = new TreeMap<>();
+        for(Map.Entry<String, AtomicLong> e: counters.entrySet()) {
+            c.put(e.getKey(), e.getValue().get());
+        }
+        Map<String, Histogram.Snapshot> h = new TreeMap<>();
+        for(Map.Entry<String, Histogram> e: histograms.entrySet()) {
+            h.put(e.getKey(), e.getValue().snapshot());
+        }
+        return new Snapshot(c, h);
+    }
+    
+    /**
+     * A latency histogram. The durations are counted in power of two buckets, so the percentiles are approximate (at most 2x).
+     */
+    public static class Histogram {
+        
+        private static final int buckets = 64;
+        
+        private long count;
+        private long total;
+        private long min = Long.MAX_VALUE;
+        private long max;
+        private final long[] counts = new long[buckets];
+        
+        public synchronized void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            count++;
+            total += nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+            counts[buckets - Long.numberOfLeadingZeros(nanos)]++;
+        }
+        
+        public synchronized Snapshot snapshot() {
+            return new Snapshot(count, total, count == 0 ? 0 : min, max, percentile(0.5), percentile(0.9), percentile(0.99));
+        }
+        
+        /**
+         * @return The upper bound of the bucket of the percentile, but never more than the max.
+         */
+        private long percentile(double p) {
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+            for(int i = 0; i < buckets; i++) {
+                seen += counts[i];
+                if(seen >= rank && seen > 0) {
+                    return Math.min(max, i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max;
+        }
+        
+        /**
+         * The state of a histogram. The durations are in nanoseconds.
+         */
+        public static class Snapshot {
+            public final long count;
+            public final long total;
+            public final long min;
+            public final long max;
+            public final long p50;
+            public final long p90;
+            public final long p99;
+            
+            public Snapshot(long count, long total, long min, long max, long p50, long p90, long p99) {
+                this.count = count;
+                this.total = total;
+                this.min = min;
+                this.max = max;
+                this.p50 = p50;
+                this.p90 = p90;
+                this.p99 = p99;
+            }
+            
+            public long mean() {
+                return count == 0 ? 0 : total / count;
+            }
+            
+            @Override
+            public String toString() {
+                return String.format("count=%d total=%.3fms mean=%.3fms min=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", 
+                        count, total / 1e6, mean() / 1e6, min / 1e6, p50 / 1e6, p90 / 1e6, p99 / 1e6, max / 1e6);
+            }
+        }
+    }
+    
+    /**
+     * The state of the metrics at some point. The maps are sorted by name, and can't be modified.
+     */
+    public static class Snapshot {
+        public final Map<String, Long> counters;
+        public final Map<String, Histogram.Snapshot> histograms;
+        
+        public Snapshot(Map<String, Long> counters, Map<String, Histogram.Snapshot> histograms) {
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+        
+        /**
+         * @return The value of a counter, or 0 if it was never counted.
+         */
+        public long counter(String name) {
+            Long value = counters.get(name);
+            return value != null ? value : 0;
+        }
+        
+        /**
+         * @return The counters and histograms whose name starts with the prefix, like "phase." or "requests.".
+         */
+        public Snapshot filter(String prefix) {
+            Map<String, Long> c = new TreeMap<>();
+            for(Map.Entry<String, Long> e: counters.entrySet()) {
+                if(e.getKey().startsWith(prefix)) {
+                    c.put(e.getKey(), e.getValue());
+                }
+            }
+            Map<String, Histogram.Snapshot> h = new TreeMap<>();
+            for(Map.Entry<String, Histogram.Snapshot> e: histograms.entrySet()) {
+                if(e.getKey().startsWith(prefix)) {
+                    h.put(e.getKey(), e.getValue());
+                }
+            }
+            return new Snapshot(c, h);
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for(Map.Entry<String, Long> e: counters.entrySet()) {
+                sb.append(e.getKey()).append(" = ").append(e.getValue()).append(System.lineSeparator());
+            }
+            for(Map.Entry<String, Histogram.Snapshot> e: histograms.entrySet()) {
+                sb.append(e.getKey()).append(": ").append(e.getValue()).append(System.lineSeparator());
+            }
+            return sb.toString();
+        }
+    }
+}
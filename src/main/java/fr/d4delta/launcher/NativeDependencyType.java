@@ -17,16 +17,27 @@
 package fr.d4delta.launcher;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import org.jdom2.Element;
+import java.util.zip.ZipFile;
 
 /**
  * Will download and add to the classpath maven-native dependency.
@@ -42,6 +53,8 @@ public class NativeDependencyType extends DependencyType{
     private String sysLibrariesPaths;
     private List<String> usrLibrariesPaths;
     
+    private final List<String> extractedPaths = new LinkedList<>();
+    
     
     public NativeDependencyType() throws NativeHackException {
         if(canUsrHack()) {
@@ -56,79 +69,193 @@ public class NativeDependencyType extends DependencyType{
     }
     
     @Override
-    public boolean download(Dependency dependency, Element rootPom, Callback callback) {
-        URL remotePackURL = null;
-        URL remotePackMD5URL = null;
-        URL remotePackSHA1URL = null;
-        
-        String baseString = dependency.baseString + "-" + natives + "-" + Utils.OS;
-        String baseURL = dependency.remoteFolderURL + baseString;
-        
-        try {
-            remotePackURL =  new URL(baseURL + JarDependencyType.jarExt);
-            remotePackMD5URL = new URL(baseURL + JarDependencyType.jarExt + Dependency.md5Ext);
-            remotePackSHA1URL = new URL(baseURL + JarDependencyType.jarExt + Dependency.sha1Ext);
-        } catch(MalformedURLException ex) {
+    public boolean download(Dependency dependency, PomModel pom, Callback callback) {
+        URL remotePackURL = remotePackURL(dependency);
+        if(remotePackURL == null) {
             return false;
         }
         
-        if(Utils.is404(remotePackURL)) {
-            return false;
-        }
-        
-        boolean hasMD5 = !Utils.is404(remotePackMD5URL);
-        boolean hasSHA1 = !Utils.is404(remotePackSHA1URL);
-        
         callback.dependencyNativeNotification(dependency);
         
-        //File packFile = new File(dependency.folder, baseString + JarDependencyType.jarExt);
-        File packMD5File = new File(dependency.folder, baseString + JarDependencyType.jarExt + Dependency.md5Ext);
-        File packSHA1File = new File(dependency.folder, baseString + JarDependencyType.jarExt + Dependency.sha1Ext);
+        File packFile = packFile(dependency);
         File extractedPack = new File(dependency.folder, "natives-" + Utils.OS);
         
-        if(!extractedPack.exists() || (hasMD5 && !Utils.equals(remotePackMD5URL, packMD5File)) || (hasSHA1 && !Utils.equals(remotePackSHA1URL, packSHA1File))) {
+        if(dependency.transport.update(remotePackURL, packFile, callback, dependency)) {
+            //The checksum of the pack that was extracted is recorded next to the extract folder.
+            Checksum pack = Checksum.readRecord(packFile);
+            Checksum extracted = Checksum.readRecord(extractedPack);
             
-            Utils.purge(extractedPack);
-            extractedPack.mkdirs();
-            
-            if(hasMD5) {
-                packMD5File.delete();
-                Utils.downloadURL(remotePackMD5URL, packMD5File, callback);
+            if(!extractedPack.isDirectory() || pack == null || !pack.matches(extracted)) {
+                Checksum.recordFile(extractedPack).delete();
+                long start = System.nanoTime();
+                Object event = Flight.beginNativeExtraction();
+                //The written and unchanged entries
+                int[] entries = new int[2];
+                try {
+                    extract(packFile, extractedPack, entries);
+                    metrics.time("native.extract", start);
+                    Flight.endNativeExtraction(event, dependency, packFile, entries[0], entries[1], "ok");
+                    if(pack != null) {
+                        pack.writeRecord(extractedPack);
+                    }
+                } catch (IOException ex) {
+                    Flight.endNativeExtraction(event, dependency, packFile, entries[0], entries[1], "failed");
+                    callback.extractException(dependency, remotePackURL, extractedPack, ex);
+                }
             }
+        }
+               
+        addToPath(extractedPack.getPath());
+        
+        return true;
+    }
+    
+    @Override
+    public void prefetch(Dependency dependency, PomModel pom, Callback callback) {
+        URL remotePackURL = remotePackURL(dependency);
+        if(remotePackURL != null) {
+            dependency.transport.update(remotePackURL, packFile(dependency), callback, dependency);
+        }
+    }
+    
+    private URL remotePackURL(Dependency dependency) {
+        URL remotePackURL;
+        try {
+            remotePackURL = new URL(dependency.remoteFolderURL + packBaseString(dependency) + JarDependencyType.jarExt);
+        } catch(MalformedURLException ex) {
+            return null;
+        }
+        
+        return dependency.transport.is404(remotePackURL, dependency, dependency.source) ? null : remotePackURL;
+    }
+    
+    private String packBaseString(Dependency dependency) {
+        return dependency.baseString + "-" + natives + "-" + Utils.OS;
+    }
+    
+    private File packFile(Dependency dependency) {
+        return new File(dependency.folder, packBaseString(dependency) + JarDependencyType.jarExt);
+    }
+    
+    /**
+     * Extract a pack into a folder. 
+     * Only the entries that changed are written, in parallel, and the files that are not in the pack anymore are deleted.
+     * The files that didn't change are left untouched, so the processes that use them are not disturbed.
+     * @param entryCounts Receives the number of written entries, then the number of unchanged ones.
+     */
+    private void extract(File packFile, final File extractedPack, int[] entryCounts) throws IOException {
+        extractedPack.mkdirs();
+        final String extractedPath = extractedPack.getCanonicalPath() + File.separator;
+        
+        try(final ZipFile pack = new ZipFile(packFile)) {
+            Set<File> entries = new HashSet<>();
+            List<Callable<Void>> writes = new ArrayList<>();
             
-            if(hasSHA1) {
-                packSHA1File.delete();
-                Utils.downloadURL(remotePackSHA1URL, packSHA1File, callback);
+            Enumeration<? extends ZipEntry> e = pack.entries();
+            while(e.hasMoreElements()) {
+                final ZipEntry entry = e.nextElement();
+                final File outFile = new File(extractedPack, entry.getName());
+                if(!outFile.getCanonicalPath().startsWith(extractedPath)) {
+                    throw new IOException(entry.getName() + " is outside of the pack.");
+                }
+                for(File f = outFile; f != null && !f.equals(extractedPack) && entries.add(f); f = f.getParentFile());
+                
+                if(entry.isDirectory()) {
+                    outFile.mkdirs();
+                } else if(isExtracted(entry, outFile)) {
+                    metrics.count("native.entries.unchanged");
+                    entryCounts[1]++;
+                } else {
+                    metrics.count("native.entries.written");
+                    entryCounts[0]++;
+                    writes.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            extractEntry(pack, entry, outFile);
+                            return null;
+                        }
+                    });
+                }
             }
             
-            try(ZipInputStream zipPackIn = new ZipInputStream(remotePackURL.openStream())) {
-                //Extract the remote jar into the extract folder
-                ZipEntry entry;
-                while((entry = zipPackIn.getNextEntry()) != null) {
-                    File outFile = new File(extractedPack, entry.getName());
-                    
-                    if(entry.isDirectory()) {
-                        outFile.mkdirs();
-                    } else {
-                        outFile.getParentFile().mkdirs();
-                        try(FileOutputStream out = new FileOutputStream(outFile)) {
-                            int read;
-                            byte[] buffer = new byte[Utils.downloadBufferSize];
-                            while ((read = zipPackIn.read(buffer)) > 0) {
-                                out.write(buffer, 0, read);
-                            }
-                        }
+            deleteOthers(extractedPack, entries);
+            
+            if(writes.size() <= 1) {
+                for(Callable<Void> write: writes) {
+                    try {
+                        write.call();
+                    } catch(IOException ex) {
+                        throw ex;
+                    } catch(Exception ex) {
+                        throw new IOException(ex);
                     }
-                    
                 }
-            } catch (IOException ex) {
-                callback.extractException(dependency, remotePackURL, extractedPack, ex);
+                return;
+            }
+            
+            ExecutorService extractor = Executors.newFixedThreadPool(Math.min(writes.size(), Runtime.getRuntime().availableProcessors()));
+            try {
+                for(Future<Void> write: extractor.invokeAll(writes)) {
+                    write.get();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+            } finally {
+                extractor.shutdownNow();
             }
         }
-               
-        addToPath(extractedPack.getPath());
+    }
+    
+    /**
+     * @return If the file is already the same as the entry (same size and crc).
+     */
+    private static boolean isExtracted(ZipEntry entry, File outFile) throws IOException {
+        if(!outFile.isFile() || entry.getCrc() == -1 || outFile.length() != entry.getSize()) {
+            return false;
+        }
         
-        return true;
+        CRC32 crc = new CRC32();
+        try(InputStream in = new FileInputStream(outFile)) {
+            int read;
+            byte[] buffer = new byte[Utils.downloadBufferSize];
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+    
+    private static void extractEntry(ZipFile pack, ZipEntry entry, File outFile) throws IOException {
+        outFile.getParentFile().mkdirs();
+        
+        //The entry is written aside, then moved, so a library that is being used is replaced and not overwritten.
+        File part = Utils.partFile(outFile);
+        try(InputStream in = pack.getInputStream(entry); FileOutputStream out = new FileOutputStream(part)) {
+            int read;
+            byte[] buffer = new byte[Utils.downloadBufferSize];
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        Utils.move(part, outFile);
+    }
+    
+    private static void deleteOthers(File folder, Set<File> keep) {
+        File[] files = folder.listFiles();
+        if(files == null) {
+            return;
+        }
+        
+        for(File f: files) {
+            if(!keep.contains(f)) {
+                Utils.purge(f);
+            } else if(f.isDirectory()) {
+                deleteOthers(f, keep);
+            }
+        }
     }
     
     @Override
@@ -148,7 +275,54 @@ public class NativeDependencyType extends DependencyType{
         }
     }
     
+    @Override
+    public DependencyType copy() {
+        try {
+            return new NativeDependencyType();
+        } catch(NativeHackException ex) {
+            return null;
+        }
+    }
+    
+    public static final String lockKey = "native.paths";
+    
+    @Override
+    public boolean record(Lockfile lockfile) {
+        lockfile.putList(lockKey, extractedPaths);
+        return true;
+    }
+    
+    @Override
+    public boolean canRestore(Lockfile lockfile) {
+        List<String> paths = lockfile.getList(lockKey);
+        if(paths == null) {
+            return false;
+        }
+        
+        for(String path: paths) {
+            if(!new File(path).isDirectory()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public void restore(Lockfile lockfile) {
+        for(String path: lockfile.getList(lockKey)) {
+            addToPath(path);
+        }
+    }
+    
+    /**
+     * @return The folders of the extracted natives, for a forked JVM.
+     */
+    List<String> libraryPaths() {
+        return extractedPaths;
+    }
+    
     private void addToPath(String libPath) {
+        extractedPaths.add(libPath);
         switch(hackType) {
             case Sys:
                 sysLibrariesPaths += File.pathSeparator + libPath;
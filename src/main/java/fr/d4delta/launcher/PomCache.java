@@ -0,0 +1,169 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * The pom cache keeps the models of the poms, so they are not parsed again on every launch.
+ * Each model is written next to its pom in a binary form, and the last used ones are also kept in memory.
+ * A model is only used if the pom still has the checksum it was built from.
+ * @author d4delta
+ */
+public class PomCache {
+    
+    public static final String modelExt = ".model";
+    
+    private final Map<String, Entry> memory;
+    
+    /**
+     * Where the cache hits and the parse times are counted.
+     */
+    public Metrics metrics = new Metrics();
+    
+    private static class Entry {
+        final String key;
+        final PomModel model;
+        
+        Entry(String key, PomModel model) {
+            this.key = key;
+            this.model = model;
+        }
+    }
+    
+    //The models in memory, the least recently used one is dropped first.
+    private static class LruMap extends LinkedHashMap<String, Entry> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final int capacity;
+        
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    }
+    
+    /**
+     * @param capacity How many models are kept in memory.
+     */
+    public PomCache(int capacity) {
+        memory = new LruMap(capacity);
+    }
+    
+    public PomCache() {
+        this(512);
+    }
+    
+    /**
+     * @param pom A local pom file
+     * @return The model of the pom, from the cache if the pom didn't change, or parsed from the pom.
+     * @throws XMLStreamException If the pom has to be parsed, and it's not a valid xml file.
+     * @throws IOException If the pom can't be read.
+     */
+    public PomModel load(File pom) throws XMLStreamException, IOException {
+        //The model is keyed by the checksum recorded when the pom was downloaded.
+        Checksum checksum = Checksum.readRecord(pom);
+        String key = checksum != null && checksum.describes(pom) ? checksum.toString() : null;
+        if(key == null) {
+            metrics.count("cache.pom.misses");
+            return parse(pom);
+        }
+        
+        synchronized(memory) {
+            Entry entry = memory.get(pom.getPath());
+            if(entry != null && entry.key.equals(key)) {
+                metrics.count("cache.pom.memoryHits");
+                return entry.model;
+            }
+        }
+        
+        File modelFile = new File(pom.getPath() + modelExt);
+        PomModel model = read(modelFile, key);
+        if(model != null) {
+            metrics.count("cache.pom.modelHits");
+        } else {
+            metrics.count("cache.pom.misses");
+            model = parse(pom);
+            write(modelFile, model, key);
+        }
+        
+        synchronized(memory) {
+            memory.put(pom.getPath(), new Entry(key, model));
+        }
+        return model;
+    }
+    
+    private PomModel parse(File pom) throws XMLStreamException, IOException {
+        long start = System.nanoTime();
+        Object event = Flight.beginPomParse();
+        PomModel model = null;
+        try {
+            model = PomModel.parse(pom);
+            return model;
+        } finally {
+            metrics.time("pom.parse", start);
+            Flight.endPomParse(event, pom, model);
+        }
+    }
+    
+    private PomModel read(File modelFile, String key) {
+        try {
+            //Read at once, so a corrupted length can't ask more than the size of the file.
+            byte[] data = Files.readAllBytes(modelFile.toPath());
+            return PomModel.read(new DataInputStream(new ByteArrayInputStream(data)), key);
+        } catch(NoSuchFileException | FileNotFoundException ex) {
+            return null;
+        } catch(IOException | RuntimeException ex) {
+            //The model is corrupted (or truncated): the pom is parsed again, and the model rewritten.
+            metrics.count("cache.pom.corrupted");
+            modelFile.delete();
+            return null;
+        }
+    }
+    
+    private static void write(File modelFile, PomModel model, String key) {
+        File temp = Utils.partFile(modelFile);
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                model.write(out, key);
+            }
+            Utils.move(temp, modelFile);
+        } catch(IOException ex) {
+            temp.delete();
+        }
+    }
+}
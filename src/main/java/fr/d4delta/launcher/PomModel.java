@@ -0,0 +1,457 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * The pom model contains what the launcher needs from a pom: its coordinates, properties, repositories and dependencies.
+ * The values are raw: the maven variables (${...}) are not substituted.
+ * @author d4delta
+ */
+public class PomModel {
+    
+    public String groupId;
+    public String artifactId;
+    public String version;
+    public String packaging;
+    
+    public final Map<String, String> properties = new LinkedHashMap<>();
+    public final List<Repository> repositories = new ArrayList<>();
+    public final List<Reference> references = new ArrayList<>();
+    
+    /**
+     * A dependency declared by a pom.
+     */
+    public static class Reference {
+        public String groupId;
+        public String artifactId;
+        public String version;
+        public String scope;
+        public String optional;
+        /**
+         * The excluded artifacts, as "groupId:artifactId".
+         */
+        public List<String> exclusions = Collections.emptyList();
+    }
+    
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+    
+    public static PomModel parse(File pom) throws XMLStreamException, IOException {
+        try(InputStream in = new BufferedInputStream(new FileInputStream(pom))) {
+            return parse(in);
+        }
+    }
+    
+    /**
+     * Read a pom with a streaming parser. Only the elements the launcher needs are read, the others are skipped.
+     * @param pom The pom
+     * @return The model of the pom
+     * @throws XMLStreamException If the pom is not a valid xml file, or if it has no root element.
+     */
+    public static PomModel parse(InputStream pom) throws XMLStreamException {
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(pom);
+        try {
+            PomModel model = new PomModel();
+            
+            //Go to the project element. An empty (or truncated) pom may not have one.
+            do {
+                if(!reader.hasNext()) {
+                    throw new XMLStreamException("The pom has no root element");
+                }
+            } while(reader.next() != XMLStreamConstants.START_ELEMENT);
+            
+            while(nextChild(reader)) {
+                switch(reader.getLocalName()) {
+                    case "groupId":
+                        model.groupId = text(reader).trim();
+                        break;
+                    case "artifactId":
+                        model.artifactId = text(reader).trim();
+                        break;
+                    case "version":
+                        model.version = text(reader).trim();
+                        break;
+                    case "packaging":
+                        model.packaging = text(reader).trim();
+                        break;
+                    case "properties":
+                        while(nextChild(reader)) {
+                            String name = reader.getLocalName();
+                            model.properties.put(name, text(reader));
+                        }
+                        break;
+                    case "repositories":
+                        while(nextChild(reader)) {
+                            if(reader.getLocalName().equals("repository")) {
+                                model.repositories.add(readRepository(reader));
+                            } else {
+                                skip(reader);
+                            }
+                        }
+                        break;
+                    case "dependencies":
+                        while(nextChild(reader)) {
+                            if(reader.getLocalName().equals("dependency")) {
+                                model.references.add(readReference(reader));
+                            } else {
+                                skip(reader);
+                            }
+                        }
+                        break;
+                    default:
+                        skip(reader);
+                }
+            }
+            return model;
+        } finally {
+            reader.close();
+        }
+    }
+    
+    private static Repository readRepository(XMLStreamReader reader) throws XMLStreamException {
+        String id = null;
+        String url = null;
+        while(nextChild(reader)) {
+            switch(reader.getLocalName()) {
+                case "id":
+                    id = text(reader);
+                    break;
+                case "url":
+                    url = text(reader);
+                    break;
+                default:
+                    skip(reader);
+            }
+        }
+        return new Repository(id, url);
+    }
+    
+    private static Reference readReference(XMLStreamReader reader) throws XMLStreamException {
+        Reference reference = new Reference();
+        while(nextChild(reader)) {
+            switch(reader.getLocalName()) {
+                case "groupId":
+                    reference.groupId = text(reader);
+                    break;
+                case "artifactId":
+                    reference.artifactId = text(reader);
+                    break;
+                case "version":
+                    reference.version = text(reader);
+                    break;
+                case "scope":
+                    reference.scope = text(reader);
+                    break;
+                case "optional":
+                    reference.optional = text(reader);
+                    break;
+                case "exclusions":
+                    reference.exclusions = new ArrayList<>();
+                    while(nextChild(reader)) {
+                        if(reader.getLocalName().equals("exclusion")) {
+                            String groupId = null;
+                            String artifactId = null;
+                            while(nextChild(reader)) {
+                                switch(reader.getLocalName()) {
+                                    case "groupId":
+                                        groupId = text(reader).trim();
+                                        break;
+                                    case "artifactId":
+                                        artifactId = text(reader).trim();
+                                        break;
+                                    default:
+                                        skip(reader);
+                                }
+                            }
+                            reference.exclusions.add(groupId + ":" + artifactId);
+                        } else {
+                            skip(reader);
+                        }
+                    }
+                    break;
+                default:
+                    skip(reader);
+            }
+        }
+        return reference;
+    }
+    
+    /**
+     * Move to the next child element of the current element.
+     * @return false if there is no more child: the reader is then on the end of the current element.
+     */
+    private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+        while(true) {
+            switch(reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    return true;
+                case XMLStreamConstants.END_ELEMENT:
+                case XMLStreamConstants.END_DOCUMENT:
+                    return false;
+            }
+        }
+    }
+    
+    /**
+     * @return The text of the current element and all its children, like Element.getValue(). The reader is then on the end of the element.
+     */
+    private static String text(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        for(int depth = 1; depth > 0;) {
+            switch(reader.next()) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+            }
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Skip the current element and all its children. The reader is then on the end of the element.
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        for(int depth = 1; depth > 0;) {
+            switch(reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+            }
+        }
+    }
+    
+    /**
+     * Build the model from a pom that was already parsed with JDOM. 
+     * It gives the same model as parse, but the whole document has to be built first.
+     * @param project The root element of a pom
+     * @return The model of the pom
+     */
+    public static PomModel of(Element project) {
+        Namespace namespace = project.getNamespace();
+        PomModel model = new PomModel();
+        
+        model.groupId = project.getChildTextTrim("groupId", namespace);
+        model.artifactId = project.getChildTextTrim("artifactId", namespace);
+        model.version = project.getChildTextTrim("version", namespace);
+        model.packaging = project.getChildTextTrim("packaging", namespace);
+        
+        Element properties = project.getChild("properties", namespace);
+        if(properties != null) {
+            for(Element e: properties.getChildren()) {
+                model.properties.put(e.getName(), e.getValue());
+            }
+        }
+        
+        Element repositories = project.getChild("repositories", namespace);
+        if(repositories != null) {
+            for(Element e: repositories.getChildren("repository", namespace)) {
+                model.repositories.add(new Repository(e.getChildText("id", namespace), e.getChildText("url", namespace)));
+            }
+        }
+        
+        Element dependencies = project.getChild("dependencies", namespace);
+        if(dependencies != null) {
+            for(Element e: dependencies.getChildren("dependency", namespace)) {
+                Reference reference = new Reference();
+                reference.groupId = e.getChildText("groupId", namespace);
+                reference.artifactId = e.getChildText("artifactId", namespace);
+                reference.version = e.getChildText("version", namespace);
+                reference.scope = e.getChildText("scope", namespace);
+                reference.optional = e.getChildText("optional", namespace);
+                
+                Element exclusions = e.getChild("exclusions", namespace);
+                if(exclusions != null) {
+                    reference.exclusions = new ArrayList<>();
+                    for(Element exclusion: exclusions.getChildren("exclusion", namespace)) {
+                        reference.exclusions.add(exclusion.getChildTextTrim("groupId", namespace) + ":" + exclusion.getChildTextTrim("artifactId", namespace));
+                    }
+                }
+                model.references.add(reference);
+            }
+        }
+        
+        return model;
+    }
+    
+    //Binary format
+    
+    private static final int magic = 0x44504F4D;
+    private static final int formatVersion = 1;
+    
+    /**
+     * Write the model in a compact binary form.
+     * @param out Where to write
+     * @param key Written in the header, to know later if the model still match the pom (the pom checksum for example).
+     */
+    public void write(DataOutputStream out, String key) throws IOException {
+        out.writeInt(magic);
+        out.writeByte(formatVersion);
+        writeString(out, key);
+        
+        writeString(out, groupId);
+        writeString(out, artifactId);
+        writeString(out, version);
+        writeString(out, packaging);
+        
+        out.writeInt(properties.size());
+        for(Entry<String, String> e: properties.entrySet()) {
+            writeString(out, e.getKey());
+            writeString(out, e.getValue());
+        }
+        
+        out.writeInt(repositories.size());
+        for(Repository r: repositories) {
+            writeString(out, r.id);
+            writeString(out, r.url);
+        }
+        
+        out.writeInt(references.size());
+        for(Reference r: references) {
+            writeString(out, r.groupId);
+            writeString(out, r.artifactId);
+            writeString(out, r.version);
+            writeString(out, r.scope);
+            writeString(out, r.optional);
+            out.writeInt(r.exclusions.size());
+            for(String exclusion: r.exclusions) {
+                writeString(out, exclusion);
+            }
+        }
+    }
+    
+    /**
+     * Read a model written by write.
+     * @param in Where to read. Its available() must be what remains, like on a byte array, to check the lengths.
+     * @param key The expected key
+     * @return The model, or null if it was written with another key or in another format.
+     * @throws IOException If the model is truncated, or if a length in it is not possible.
+     */
+    public static PomModel read(DataInputStream in, String key) throws IOException {
+        if(in.readInt() != magic || in.readByte() != formatVersion || !key.equals(readString(in))) {
+            return null;
+        }
+        
+        PomModel model = new PomModel();
+        model.groupId = readString(in);
+        model.artifactId = readString(in);
+        model.version = readString(in);
+        model.packaging = readString(in);
+        
+        for(int i = readCount(in); i > 0; i--) {
+            model.properties.put(readString(in), readString(in));
+        }
+        
+        for(int i = readCount(in); i > 0; i--) {
+            model.repositories.add(new Repository(readString(in), readString(in)));
+        }
+        
+        for(int i = readCount(in); i > 0; i--) {
+            Reference r = new Reference();
+            r.groupId = readString(in);
+            r.artifactId = readString(in);
+            r.version = readString(in);
+            r.scope = readString(in);
+            r.optional = readString(in);
+            int exclusions = readCount(in);
+            if(exclusions > 0) {
+                r.exclusions = new ArrayList<>(exclusions);
+                for(; exclusions > 0; exclusions--) {
+                    r.exclusions.add(readString(in));
+                }
+            }
+            model.references.add(r);
+        }
+        return model;
+    }
+    
+    //Strings are written as their UTF-8 length (-1 for null) followed by their bytes.
+    
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if(s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    //Each element takes at least 4 bytes, so there can't be more elements than a quarter of what remains.
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count > in.available() / 4) {
+            throw new IOException("Invalid count in model: " + count);
+        }
+        return count;
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length == -1) {
+            return null;
+        }
+        if(length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length in model: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
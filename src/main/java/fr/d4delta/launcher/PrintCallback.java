@@ -41,6 +41,18 @@ public class PrintCallback extends Callback {
         this(System.err, System.out);
     }
     
+    @Override
+    public void processOutputNotification(String line, boolean error) {
+        (error ? err : out).println(line);
+    }
+    
+    @Override
+    public void processExitNotification(int exitCode) {
+        if(exitCode != 0) {
+            err.println("The application exited with code " + exitCode);
+        }
+    }
+    
     @Override
     public void nativeHackError(NativeHackException exception) {
         err.println("Exception while trying to add a native path to the vm :");
@@ -81,6 +93,11 @@ public class PrintCallback extends Callback {
         cause.printStackTrace(err);
     }
 
+    @Override
+    public void lockedLaunchNotification(File lockfile) {
+        out.println("The main pom didn't change, launching from " + lockfile);
+    }
+
     @Override
     public void readyToLaunchNotification(String mainClassPath, Class mainClass, Method main) {
         out.println(mainClassPath + " is ready to roll !");
@@ -88,7 +105,20 @@ public class PrintCallback extends Callback {
 
     @Override
     public void downloadStateNotification(URL origin, File destination, long fileSize, long downloaded) {
-        out.println("Downloading " + origin + " to " + destination + " | " + (downloaded / fileSize * 100) + " %");
+        out.println("Downloading " + origin + " to " + destination + " | " + (fileSize > 0 ? downloaded * 100 / fileSize + " %" : downloaded + " bytes"));
+    }
+    
+    @Override
+    public void progressNotification(Progress.Snapshot progress) {
+        StringBuilder sb = new StringBuilder("Downloaded ").append(progress.downloaded / 1024).append(" KB");
+        if(progress.total >= 0) {
+            sb.append(" of ").append(progress.estimated ? "~" : "").append(progress.total / 1024).append(" KB (").append(progress.percent()).append(" %)");
+        }
+        sb.append(" | ").append((long) progress.bytesPerSecond / 1024).append(" KB/s");
+        if(progress.eta >= 0) {
+            sb.append(" | ").append(progress.eta / 1000).append(" s left");
+        }
+        out.println(sb);
     }
 
     @Override
@@ -0,0 +1,146 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.Map.Entry;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The probe cache remembers if a remote file exists or not, so the launcher doesn't ask the repositories again on every launch.
+ * Existing and missing files are kept for different durations, and the cache can be saved in a file to be reused by the next launches.
+ * @author d4delta
+ */
+public class ProbeCache {
+    
+    /**
+     * How long (in milliseconds) a file that exists is remembered.
+     */
+    public long positiveTTL = 24L * 60 * 60 * 1000;
+    
+    /**
+     * How long (in milliseconds) a missing file is remembered.
+     */
+    public long negativeTTL = 60L * 60 * 1000;
+    
+    private final File file;
+    private final ConcurrentHashMap<String, Probe> probes = new ConcurrentHashMap<>();
+    
+    private static class Probe {
+        final boolean exists;
+        final long time;
+        
+        Probe(boolean exists, long time) {
+            this.exists = exists;
+            this.time = time;
+        }
+    }
+    
+    /**
+     * @param file The file where the probes are saved, or null to keep them in memory only.
+     */
+    public ProbeCache(File file) {
+        this.file = file;
+        load();
+    }
+    
+    /**
+     * @param url The remote file
+     * @return The cached result for this url, or null if there is no valid entry.
+     */
+    public Boolean get(URL url) {
+        Probe probe = probes.get(url.toString());
+        if(probe == null) {
+            return null;
+        }
+        
+        long ttl = probe.exists ? positiveTTL : negativeTTL;
+        if(System.currentTimeMillis() - probe.time >= ttl) {
+            probes.remove(url.toString(), probe);
+            return null;
+        }
+        return probe.exists;
+    }
+    
+    public void put(URL url, boolean exists) {
+        probes.put(url.toString(), new Probe(exists, System.currentTimeMillis()));
+    }
+    
+    /**
+     * Forget a probe, for example because the file was not there when we tried to download it.
+     * @param url The remote file
+     */
+    public void invalidate(URL url) {
+        probes.remove(url.toString());
+    }
+    
+    private void load() {
+        if(file == null) {
+            return;
+        }
+        
+        try(Scanner scanner = new Scanner(file)) {
+            while(scanner.hasNextLine()) {
+                //Each line is : "+" or "-", the time of the probe, and the url.
+                String[] line = scanner.nextLine().split(" ", 3);
+                if(line.length == 3 && !line[0].startsWith("#")) {
+                    try {
+                        probes.put(line[2], new Probe(line[0].equals("+"), Long.parseLong(line[1])));
+                    } catch(NumberFormatException ex) {}
+                }
+            }
+        } catch (FileNotFoundException ex) {}
+    }
+    
+    /**
+     * Save the probes that are still valid in the cache file.
+     */
+    public void save() {
+        if(file == null) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        File temp = Utils.partFile(file);
+        temp.getParentFile().mkdirs();
+        try(PrintWriter pw = new PrintWriter(temp)) {
+            pw.write("#NOTE: This is an internal implementation file, its format can be changed without prior notice." + System.lineSeparator());
+            for(Entry<String, Probe> e: probes.entrySet()) {
+                Probe probe = e.getValue();
+                if(now - probe.time < (probe.exists ? positiveTTL : negativeTTL)) {
+                    pw.write((probe.exists ? "+" : "-") + " " + probe.time + " " + e.getKey() + System.lineSeparator());
+                }
+            }
+        } catch (IOException ex) {
+            temp.delete();
+            return;
+        }
+        
+        try {
+            Utils.move(temp, file);
+        } catch (IOException ex) {
+            temp.delete();
+        }
+    }
+}
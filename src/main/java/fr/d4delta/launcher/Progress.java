@@ -0,0 +1,349 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The progress of the downloads of a launcher, per file and for the whole launch.
+ * The transfers only update counters. A progress thread sends the changes to the callback at most every interval, 
+ * so a slow progress UI never slows down the downloads.
+ * @author d4delta
+ */
+public class Progress {
+    
+    /**
+     * The minimum time (in milliseconds) between two notifications to the callback.
+     */
+    public long interval = 200;
+    
+    /**
+     * The weight of the last interval in the average speed.
+     */
+    public double speedWeight = 0.3;
+    
+    private final Callback callback;
+    
+    //The bytes received during this launch, and the bytes that were already there when a download was resumed.
+    private final AtomicLong transferred = new AtomicLong();
+    private final AtomicLong resumed = new AtomicLong();
+    //The sum of the sizes of the files whose size is known.
+    private final AtomicLong knownBytes = new AtomicLong();
+    private final AtomicInteger knownFiles = new AtomicInteger();
+    //The same, for the planned files only: they are much bigger than the poms.
+    private final AtomicLong plannedBytes = new AtomicLong();
+    private final AtomicInteger plannedSized = new AtomicInteger();
+    
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    
+    //The folders of the dependencies whose files are planned, and the ones whose files were downloaded or found up to date.
+    //A dependency is counted once, even if its files are prefetched then found up to date, or if it has several files (natives).
+    private final Set<String> planned = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> plannedDone = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    
+    private final ConcurrentLinkedQueue<Transfer> transfers = new ConcurrentLinkedQueue<>();
+    
+    private Thread notifier;
+    private long lastTick;
+    private long lastTransferred;
+    private volatile double speed;
+    private volatile boolean changed;
+    
+    public Progress(Callback callback) {
+        this.callback = callback;
+    }
+    
+    /**
+     * A download of a file.
+     */
+    public class Transfer {
+        public final URL origin;
+        public final File destination;
+        /**
+         * The size of the file, or -1 if it's unknown.
+         */
+        public final long size;
+        private final AtomicLong downloaded;
+        private volatile boolean done;
+        private long notified = -1;
+        
+        Transfer(URL origin, File destination, long size, long resumedBytes) {
+            this.origin = origin;
+            this.destination = destination;
+            this.size = size;
+            this.downloaded = new AtomicLong(resumedBytes);
+        }
+        
+        /**
+         * @param bytes The bytes that were just received
+         */
+        public void advance(long bytes) {
+            downloaded.addAndGet(bytes);
+            transferred.addAndGet(bytes);
+            changed = true;
+        }
+        
+        public long downloaded() {
+            return downloaded.get();
+        }
+        
+        /**
+         * The transfer is over, successful or not.
+         */
+        public void end() {
+            done = true;
+            finished.incrementAndGet();
+            changed = true;
+        }
+    }
+    
+    /**
+     * A download starts.
+     * @param origin The remote file
+     * @param destination The local file
+     * @param resumedBytes The bytes of the file that are already there, if the download is resumed.
+     * @param remaining The bytes that will be received (the Content-Length), or -1 if it's unknown.
+     */
+    public Transfer begin(URL origin, File destination, long resumedBytes, long remaining) {
+        long size = remaining < 0 ? -1 : resumedBytes + remaining;
+        Transfer transfer = new Transfer(origin, destination, size, resumedBytes);
+        resumed.addAndGet(resumedBytes);
+        if(size >= 0) {
+            knownBytes.addAndGet(size);
+            knownFiles.incrementAndGet();
+        }
+        started.incrementAndGet();
+        String key = plannedKey(origin, destination);
+        if(key != null && plannedDone.add(key)) {
+            if(size >= 0) {
+                plannedBytes.addAndGet(size);
+                plannedSized.incrementAndGet();
+            }
+        }
+        transfers.add(transfer);
+        changed = true;
+        return transfer;
+    }
+    
+    /**
+     * A file was already up to date, it doesn't have to be downloaded.
+     * @param origin The remote file
+     * @param destination The local file
+     */
+    public void skip(URL origin, File destination) {
+        String key = plannedKey(origin, destination);
+        if(key != null && plannedDone.add(key)) {
+            changed = true;
+        }
+    }
+    
+    /**
+     * Announce a dependency whose files will be checked (and downloaded if needed), so the total can be estimated before they start.
+     * @param folder The folder of the dependency, where its files are downloaded.
+     */
+    public void plan(File folder) {
+        planned.add(folder.getAbsolutePath());
+        changed = true;
+    }
+    
+    /**
+     * A planned dependency is done, even if none of its files were downloaded or found up to date (it had none).
+     * @param folder The folder of the dependency
+     */
+    public void settle(File folder) {
+        String key = folder.getAbsolutePath();
+        if(planned.contains(key) && plannedDone.add(key)) {
+            changed = true;
+        }
+    }
+    
+    /**
+     * @return The planned dependency a file belongs to, or null if it's not planned. 
+     * Only the files of the dependencies count, the poms, the checksums and the patches don't.
+     */
+    private String plannedKey(URL origin, File destination) {
+        String kind = Metrics.kind(origin.getPath());
+        if(kind.equals("pom") || kind.equals("checksum") || kind.equals("patch") || destination.getParentFile() == null) {
+            return null;
+        }
+        String key = destination.getAbsoluteFile().getParent();
+        return planned.contains(key) ? key : null;
+    }
+    
+    /**
+     * Start sending the progress to the callback.
+     */
+    public synchronized void start() {
+        if(notifier != null) {
+            return;
+        }
+        lastTick = System.nanoTime();
+        lastTransferred = transferred.get();
+        notifier = new Thread("DeltaLauncher-progress") {
+            @Override
+            public void run() {
+                try {
+                    while(!isInterrupted()) {
+                        Thread.sleep(interval);
+                        tick();
+                    }
+                } catch(InterruptedException ex) {}
+            }
+        };
+        notifier.setDaemon(true);
+        notifier.start();
+    }
+    
+    /**
+     * Stop the progress thread, and send the last changes.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized(this) {
+            thread = notifier;
+            notifier = null;
+        }
+        if(thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        tick();
+    }
+    
+    private synchronized void tick() {
+        long now = System.nanoTime();
+        long bytes = transferred.get();
+        double seconds = (now - lastTick) / 1e9;
+        if(seconds > 0) {
+            double current = (bytes - lastTransferred) / seconds;
+            speed = speed == 0 ? current : speed * (1 - speedWeight) + current * speedWeight;
+        }
+        lastTick = now;
+        lastTransferred = bytes;
+        
+        if(!changed) {
+            return;
+        }
+        changed = false;
+        
+        List<Transfer> over = new ArrayList<>();
+        for(Transfer t: transfers) {
+            long downloaded = t.downloaded();
+            if(downloaded != t.notified) {
+                t.notified = downloaded;
+                callback.downloadStateNotification(t.origin, t.destination, t.size, downloaded);
+            }
+            if(t.done) {
+                over.add(t);
+            }
+        }
+        transfers.removeAll(over);
+        
+        callback.progressNotification(snapshot());
+    }
+    
+    public Snapshot snapshot() {
+        long downloaded = transferred.get() + resumed.get();
+        long known = knownBytes.get();
+        int knownCount = knownFiles.get();
+        int startedCount = started.get();
+        
+        //The planned files that didn't start yet are expected to be as big as the average planned file,
+        //and the files whose size is unknown as big as the average file.
+        int pendingPlanned = Math.max(0, planned.size() - plannedDone.size());
+        int unknown = startedCount - knownCount;
+        int pending = pendingPlanned + unknown;
+        int sized = plannedSized.get();
+        //Until the plan is known (while the poms are resolved), we can't tell the total.
+        long total;
+        if(planned.isEmpty() || (pendingPlanned > 0 && sized == 0) || (unknown > 0 && knownCount == 0)) {
+            total = -1;
+        } else {
+            total = known;
+            if(pendingPlanned > 0) {
+                total += pendingPlanned * (plannedBytes.get() / sized);
+            }
+            if(unknown > 0) {
+                total += unknown * (known / knownCount);
+            }
+        }
+        
+        double bytesPerSecond = speed;
+        long eta = total < 0 || bytesPerSecond <= 0 ? -1 : (long) (Math.max(0, total - downloaded) * 1000 / bytesPerSecond);
+        return new Snapshot(downloaded, total, pending > 0, startedCount, finished.get(), planned.size(), bytesPerSecond, eta);
+    }
+    
+    /**
+     * The state of the downloads at some point.
+     */
+    public static class Snapshot {
+        /**
+         * The bytes that are downloaded.
+         */
+        public final long downloaded;
+        /**
+         * The bytes to download, or -1 if we don't know yet.
+         */
+        public final long total;
+        /**
+         * If the total is an estimation: some files didn't start yet, or their size is unknown.
+         */
+        public final boolean estimated;
+        public final int startedFiles;
+        public final int finishedFiles;
+        public final int plannedFiles;
+        public final double bytesPerSecond;
+        /**
+         * The estimated time left, in milliseconds, or -1 if we can't tell.
+         */
+        public final long eta;
+        
+        public Snapshot(long downloaded, long total, boolean estimated, int startedFiles, int finishedFiles, int plannedFiles, double bytesPerSecond, long eta) {
+            this.downloaded = downloaded;
+            this.total = total;
+            this.estimated = estimated;
+            this.startedFiles = startedFiles;
+            this.finishedFiles = finishedFiles;
+            this.plannedFiles = plannedFiles;
+            this.bytesPerSecond = bytesPerSecond;
+            this.eta = eta;
+        }
+        
+        /**
+         * @return The progress in percent, or -1 if the total is unknown.
+         */
+        public int percent() {
+            return total <= 0 ? -1 : (int) Math.min(100, downloaded * 100 / total);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The properties visible from a pom: its own properties, then the ones of its parent scope.
+ * The last scope falls back to the System properties.
+ * The values are stored already interpolated, so they're never substituted again.
+ * @author d4delta
+ */
+public class PropertyScope {
+    
+    private final PropertyScope parent;
+    private final Map<String, String> properties = new HashMap<>();
+    
+    /**
+     * @param parent The scope used when a property is not defined in this one, or null to use the System properties.
+     */
+    public PropertyScope(PropertyScope parent) {
+        this.parent = parent;
+    }
+    
+    public void put(String name, String value) {
+        properties.put(name, value);
+    }
+    
+    /**
+     * @return The value of the property, or null if it's not defined in this scope, its parents, and the System properties.
+     */
+    public String get(String name) {
+        String value = properties.get(name);
+        if(value != null) {
+            return value;
+        }
+        if(parent != null) {
+            return parent.get(name);
+        }
+        return name.isEmpty() ? null : System.getProperty(name);
+    }
+    
+    /**
+     * Substitute the maven variables (${...}) of a string with the properties of this scope. The undefined ones are replaced by nothing.
+     * @return The substituted string, or null if str is null.
+     */
+    public String interpolate(String str) {
+        return str == null ? null : Template.of(str).evaluate(this);
+    }
+    
+}
@@ -0,0 +1,312 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The repository selector finds which repository has a dependency.
+ * It remembers how fast each repository answers and how often it has the dependencies, to ask the best ones first.
+ * If the best repository doesn't answer quickly, the others are asked at the same time, and the first one that has the dependency wins.
+ * @author d4delta
+ */
+public class RepositorySelector {
+    
+    public static final String statsFile = "_repositories.stats";
+    
+    /**
+     * How long (in milliseconds) we wait for the first repository before asking the others, if we don't know how fast it is.
+     */
+    public long hedgeDelay = 500;
+    
+    /**
+     * The weight of the last lookup in the average latency of a repository.
+     */
+    public double latencyWeight = 0.2;
+    
+    private final File file;
+    private final Transport transport;
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private ExecutorService pool;
+    
+    private static class Stats {
+        int lookups;
+        int hits;
+        double latency;
+        
+        /**
+         * @param prior The latency of a repository that was never measured
+         * @return The expected cost of asking this repository: the average latency, divided by the probability to find the dependency.
+         */
+        synchronized double score(double prior) {
+            return (lookups == 0 ? prior : latency) * (lookups + 2) / (hits + 1);
+        }
+    }
+    
+    public RepositorySelector(File rootFolder, Transport transport) {
+        this.file = new File(rootFolder, statsFile);
+        this.transport = transport;
+        load();
+    }
+    
+    private Stats stats(Repository repository) {
+        Stats s = stats.get(repository.url);
+        if(s == null) {
+            stats.putIfAbsent(repository.url, new Stats());
+            s = stats.get(repository.url);
+        }
+        return s;
+    }
+    
+    private void record(Repository repository, boolean hit, long latency) {
+        Stats s = stats(repository);
+        synchronized(s) {
+            s.latency = s.lookups == 0 ? latency : s.latency * (1 - latencyWeight) + latency * latencyWeight;
+            s.lookups++;
+            if(hit) {
+                s.hits++;
+            }
+        }
+    }
+    
+    /**
+     * @param repositories The repositories
+     * @param preferedId The id of the repository the dependency was downloaded from the last time, or null.
+     * @return The repositories, from the one that should be asked first to the one that should be asked last.
+     */
+    public List<Repository> rank(Collection<Repository> repositories, String preferedId) {
+        List<Repository> ranked = new ArrayList<>(repositories);
+        final Map<Repository, Double> scores = new HashMap<>();
+        for(Repository r: ranked) {
+            //A repository we know nothing about is not better than a slow one we know.
+            scores.put(r, stats(r).score(hedgeDelay));
+        }
+        
+        Collections.sort(ranked, new Comparator<Repository>() {
+            @Override
+            public int compare(Repository r1, Repository r2) {
+                int c = Double.compare(scores.get(r1), scores.get(r2));
+                return c != 0 ? c : r1.id.compareTo(r2.id);
+            }
+        });
+        
+        for(int i = 0; i < ranked.size(); i++) {
+            if(ranked.get(i).id.equals(preferedId)) {
+                ranked.add(0, ranked.remove(i));
+                break;
+            }
+        }
+        return ranked;
+    }
+    
+    /**
+     * Find a repository that has the dependency.
+     * @param dependency The dependency
+     * @param repositories The known repositories
+     * @return The repository that answered first with the dependency, or null if none of them have it.
+     */
+    public Repository select(Dependency dependency, Collection<Repository> repositories) {
+        long start = System.nanoTime();
+        try {
+            return race(dependency, repositories);
+        } finally {
+            transport.metrics.time("repository.select", start);
+        }
+    }
+    
+    private Repository race(Dependency dependency, Collection<Repository> repositories) {
+        List<Repository> candidates = rank(repositories, dependency.getPreferedRepoId());
+        if(candidates.isEmpty()) {
+            return null;
+        }
+        
+        CompletionService<Repository> race = new ExecutorCompletionService<>(pool());
+        List<Future<Repository>> lookups = new ArrayList<>(candidates.size());
+        
+        try {
+            //Most of the time, the first repository has the dependency, so we give it a little time alone.
+            Repository first = candidates.get(0);
+            lookups.add(race.submit(lookup(dependency, first)));
+            Future<Repository> firstLookup = race.poll(hedgeDelay(first), TimeUnit.MILLISECONDS);
+            if(firstLookup != null && result(firstLookup) != null) {
+                return result(firstLookup);
+            }
+            
+            for(int i = 1; i < candidates.size(); i++) {
+                lookups.add(race.submit(lookup(dependency, candidates.get(i))));
+            }
+            
+            for(int pending = lookups.size() - (firstLookup != null ? 1 : 0); pending > 0; pending--) {
+                Repository found = result(race.take());
+                if(found != null) {
+                    return found;
+                }
+            }
+            return null;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            //The losers are not needed anymore.
+            for(Future<Repository> lookup: lookups) {
+                lookup.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * @return The repository found by a lookup, or null if it didn't find it, or failed (the other lookups can still find it).
+     */
+    private static Repository result(Future<Repository> lookup) throws InterruptedException {
+        try {
+            return lookup.get();
+        } catch (ExecutionException ex) {
+            return null;
+        }
+    }
+    
+    private long hedgeDelay(Repository repository) {
+        Stats s = stats(repository);
+        synchronized(s) {
+            return s.lookups == 0 ? hedgeDelay : Math.min(hedgeDelay, Math.max(50, (long) (s.latency * 2)));
+        }
+    }
+    
+    private Callable<Repository> lookup(final Dependency dependency, final Repository repository) {
+        return new Callable<Repository>() {
+            @Override
+            public Repository call() {
+                URL url = dependency.genRemotePomURL(repository);
+                if(url == null) {
+                    return null;
+                }
+                
+                //A cached answer doesn't tell anything about the repository speed.
+                Boolean cached = transport.probes.get(url);
+                if(cached != null) {
+                    return cached ? repository : null;
+                }
+                
+                long start = System.nanoTime();
+                boolean hit = !transport.is404(url, dependency, repository);
+                long latency = System.nanoTime() - start;
+                //A loser that was cancelled may not have asked the repository at all: that says nothing about it.
+                if(Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                record(repository, hit, TimeUnit.NANOSECONDS.toMillis(latency));
+                transport.metrics.record("repository." + repository.id, latency);
+                transport.metrics.count("repository." + repository.id + (hit ? ".hits" : ".misses"));
+                return hit ? repository : null;
+            }
+        };
+    }
+    
+    private synchronized ExecutorService pool() {
+        if(pool == null) {
+            pool = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "DeltaLauncher-lookup");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return pool;
+    }
+    
+    /**
+     * Stop the lookup threads. They are started again if needed.
+     */
+    public synchronized void shutdown() {
+        if(pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+    
+    private void load() {
+        try(Scanner scanner = new Scanner(file)) {
+            while(scanner.hasNextLine()) {
+                //Each line is : lookups, hits, average latency and the repository url.
+                String[] line = scanner.nextLine().split(" ", 4);
+                if(line.length == 4 && !line[0].startsWith("#")) {
+                    try {
+                        Stats s = new Stats();
+                        s.lookups = Integer.parseInt(line[0]);
+                        s.hits = Integer.parseInt(line[1]);
+                        s.latency = Double.parseDouble(line[2]);
+                        stats.put(line[3], s);
+                    } catch(NumberFormatException ex) {}
+                }
+            }
+        } catch (FileNotFoundException ex) {}
+    }
+    
+    /**
+     * Save the repositories statistics, for the next launches.
+     */
+    public void save() {
+        File temp = Utils.partFile(file);
+        try(PrintWriter pw = new PrintWriter(temp)) {
+            pw.write("#NOTE: This is an internal implementation file, its format can be changed without prior notice." + System.lineSeparator());
+            for(Entry<String, Stats> e: stats.entrySet()) {
+                Stats s = e.getValue();
+                synchronized(s) {
+                    if(s.lookups > 0) {
+                        pw.write(s.lookups + " " + s.hits + " " + s.latency + " " + e.getKey() + System.lineSeparator());
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            temp.delete();
+            return;
+        }
+        
+        try {
+            Utils.move(temp, file);
+        } catch (IOException ex) {
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A string with maven variables (${...}), parsed once into literal and variable segments.
+ * Evaluating it is a single pass on the segments. The variables can be nested, like ${a.${b}}.
+ * @author d4delta
+ */
+public final class Template {
+    
+    /**
+     * The parsed templates. The same strings (the versions, the scopes...) come again and again in the poms.
+     */
+    private static final ConcurrentHashMap<String, Template> cache = new ConcurrentHashMap<>();
+    static int cacheCapacity = 4096;
+    
+    /**
+     * @return The template of a string, parsed or taken from the cache.
+     */
+    public static Template of(String str) {
+        Template template = cache.get(str);
+        if(template == null) {
+            template = compile(str);
+            if(cache.size() >= cacheCapacity) {
+                cache.clear();
+            }
+            cache.put(str, template);
+        }
+        return template;
+    }
+    
+    private static final String start = "${";
+    private static final char end = '}';
+    
+    private static Template compile(String str) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        
+        int i = 0;
+        while(i < str.length()) {
+            int begin = str.indexOf(start, i);
+            int close = begin == -1 ? -1 : closing(str, begin);
+            if(close == -1) {
+                //No more complete variable, the rest is text.
+                literal.append(str, i, str.length());
+                break;
+            }
+            
+            literal.append(str, i, begin);
+            if(literal.length() > 0) {
+                segments.add(new Segment(literal.toString(), null, null));
+                literal.setLength(0);
+            }
+            
+            String name = str.substring(begin + start.length(), close);
+            if(name.contains(start)) {
+                segments.add(new Segment(null, null, compile(name)));
+            } else {
+                segments.add(new Segment(null, name, null));
+            }
+            i = close + 1;
+        }
+        
+        if(literal.length() > 0) {
+            segments.add(new Segment(literal.toString(), null, null));
+        }
+        return new Template(str, segments.toArray(new Segment[segments.size()]));
+    }
+    
+    /**
+     * @return The position of the end of the variable that begins at begin, or -1 if it's not closed.
+     */
+    private static int closing(String str, int begin) {
+        int depth = 1;
+        for(int i = begin + start.length(); i < str.length(); i++) {
+            if(str.startsWith(start, i)) {
+                depth++;
+                i++;
+            } else if(str.charAt(i) == end && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * A literal text, a variable, or a variable with a name that has to be evaluated first.
+     */
+    private static final class Segment {
+        final String literal;
+        final String name;
+        final Template dynamicName;
+        
+        Segment(String literal, String name, Template dynamicName) {
+            this.literal = literal;
+            this.name = name;
+            this.dynamicName = dynamicName;
+        }
+    }
+    
+    private final String source;
+    private final Segment[] segments;
+    
+    private Template(String source, Segment[] segments) {
+        this.source = source;
+        this.segments = segments;
+    }
+    
+    /**
+     * @param scope The properties used for the variables
+     * @return The string, with its variables replaced by their value, or by nothing if they're undefined.
+     */
+    public String evaluate(PropertyScope scope) {
+        if(segments.length == 1 && segments[0].literal != null) {
+            return source;
+        }
+        
+        StringBuilder sb = new StringBuilder(source.length());
+        for(Segment segment: segments) {
+            if(segment.literal != null) {
+                sb.append(segment.literal);
+            } else {
+                String value = scope.get(segment.name != null ? segment.name : segment.dynamicName.evaluate(scope));
+                if(value != null) {
+                    sb.append(value);
+                }
+            }
+        }
+        return sb.toString();
+    }
+    
+    @Override
+    public String toString() {
+        return source;
+    }
+    
+}
@@ -0,0 +1,609 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package fr.d4delta.launcher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.MalformedURLException;
+import java.net.NoRouteToHostException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The transport is used by the dependencies and the dependency types to talk to the repositories.
+ * Unlike the Utils methods it wraps, it belongs to a launcher, and can keep what it learns from a launch to another.
+ * @author d4delta
+ */
+public class Transport {
+    
+    public static final String probeCacheFile = "_probes.cache";
+    
+    public final ProbeCache probes;
+    
+    /**
+     * If not null, the downloaded files are shared with the other launchers that use the same store,
+     * and the files that are already in the store are linked instead of downloaded.
+     */
+    public ArtifactStore store;
+    
+    /**
+     * Where the requests, the bytes and the cache hits are counted.
+     */
+    public Metrics metrics = new Metrics();
+    
+    /**
+     * If not null, told about the downloads and the files that are up to date.
+     */
+    public Progress progress;
+    
+    /**
+     * Decides when the requests go to the network. 
+     */
+    public DownloadScheduler scheduler = new DownloadScheduler();
+    
+    //The sizes of the remote files, learned from the probes, so the scheduler can start the big files first.
+    private final ConcurrentHashMap<String, Long> sizes = new ConcurrentHashMap<>();
+    //The ETag and Last-Modified of the remote files, learned from the probes, for the files that are not downloaded (patched).
+    private final ConcurrentHashMap<String, String[]> probedValidators = new ConcurrentHashMap<>();
+    
+    /**
+     * If not null, a folder laid out like the root folder of this transport (the root folder of another launcher).
+     * Its files that are up to date are linked (or copied) instead of downloaded.
+     */
+    public File seed;
+    
+    private final File rootFolder;
+    
+    /**
+     * @param rootFolder The launcher root folder, where the transport keeps its files.
+     */
+    public Transport(File rootFolder) {
+        this.rootFolder = rootFolder;
+        probes = new ProbeCache(new File(rootFolder, probeCacheFile));
+    }
+    
+    /**
+     * A transport that doesn't keep anything on the disk.
+     */
+    public Transport() {
+        rootFolder = null;
+        probes = new ProbeCache(null);
+    }
+    
+    /**
+     * Like Utils.is404, but the result is taken from the probe cache if it's known.
+     * @param url The remote file
+     * @return true if the remote file doesn't exist.
+     */
+    public boolean is404(URL url) {
+        return is404(url, null, null);
+    }
+    
+    /**
+     * @param url The remote file
+     * @param dependency The dependency the file belongs to, or null. It's only used to describe the probe.
+     * @param repository The repository that is probed, or null. It's only used to describe the probe.
+     * @return true if the remote file doesn't exist.
+     */
+    public boolean is404(URL url, Dependency dependency, Repository repository) {
+        Boolean exists = probes.get(url);
+        if(exists != null) {
+            metrics.count("cache.probe.hits");
+        } else {
+            metrics.count("cache.probe.misses");
+            metrics.count("requests.probe");
+            long start = System.nanoTime();
+            DownloadScheduler.Permit permit = scheduler.acquire(url, 0);
+            if(permit == null) {
+                return true;
+            }
+            Object event = Flight.beginProbe();
+            long[] length = {-1};
+            String[] validators = new String[2];
+            try {
+                exists = Utils.probe(url, length, validators);
+            } finally {
+                permit.release();
+            }
+            metrics.time("probe", start);
+            if(length[0] >= 0) {
+                sizes.put(url.toString(), length[0]);
+            }
+            if(validators[0] != null || validators[1] != null) {
+                probedValidators.put(url.toString(), validators);
+            }
+            Flight.endProbe(event, url, dependency, repository, exists);
+            if(exists == null) {
+                //We don't know, so we don't remember it either.
+                return true;
+            }
+            probes.put(url, exists);
+        }
+        return !exists;
+    }
+    
+    /**
+     * @param ex The reason of a failed request
+     * @return If the remote file is not there, or its repository can't be reached: another repository may have it.
+     */
+    public static boolean isUnavailable(IOException ex) {
+        return ex instanceof FileNotFoundException || ex instanceof UnknownHostException 
+                || ex instanceof ConnectException || ex instanceof NoRouteToHostException;
+    }
+    
+    /**
+     * Download the strongest checksum the repository offers for a remote file.
+     * Only one checksum file is downloaded: the weaker ones are not even asked.
+     * @param url The remote file
+     * @return The remote checksum, or null if the repository doesn't offer any.
+     */
+    public Checksum fetchChecksum(URL url) {
+        return fetchChecksum(url, null);
+    }
+    
+    /**
+     * @param validators If not null, the validators of the local file: the checksum file they describe is asked first, 
+     * with a conditional request, and what the repository sends is kept in them.
+     * @see #fetchChecksum(URL)
+     */
+    public Checksum fetchChecksum(URL url, CacheValidators validators) {
+        //If the checksum we were sent last time didn't change, the file didn't either.
+        if(validators != null && validators.checksum != null) {
+            for(String[] algorithm: Checksum.algorithms) {
+                URL checksumURL = checksumURL(url, algorithm);
+                if(checksumURL != null && validators.hasChecksum(checksumURL)) {
+                    Checksum checksum = readChecksum(checksumURL, algorithm[0], validators);
+                    if(checksum != null) {
+                        return checksum;
+                    }
+                    break;
+                }
+            }
+        }
+        
+        for(String[] algorithm: Checksum.algorithms) {
+            URL checksumURL = checksumURL(url, algorithm);
+            if(checksumURL == null) {
+                continue;
+            }
+            
+            if(probes.get(checksumURL) == Boolean.FALSE) {
+                metrics.count("cache.probe.hits");
+                continue;
+            }
+            
+            Checksum checksum = readChecksum(checksumURL, algorithm[0], validators);
+            if(checksum != null) {
+                return checksum;
+            }
+        }
+        return null;
+    }
+    
+    private static URL checksumURL(URL url, String[] algorithm) {
+        try {
+            return new URL(url.toString() + algorithm[1]);
+        } catch (MalformedURLException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Read a remote checksum file, with a conditional request if the validators describe it.
+     * @return The checksum, or null if it isn't there (or can't be read).
+     */
+    private Checksum readChecksum(URL checksumURL, String algorithm, CacheValidators validators) {
+        DownloadScheduler.Permit permit = scheduler.acquire(checksumURL, 0);
+        if(permit == null) {
+            return null;
+        }
+        boolean conditional = validators != null && validators.hasChecksum(checksumURL);
+        String[] received = new String[2];
+        metrics.count("requests.checksum");
+        long start = System.nanoTime();
+        try {
+            byte[] content;
+            try {
+                content = Utils.readURL(checksumURL, conditional ? validators.checksumEtag : null, conditional ? validators.checksumLastModified : null, received);
+            } finally {
+                permit.release();
+            }
+            probes.put(checksumURL, true);
+            if(content == null) {
+                metrics.count("requests.notModified");
+                return validators.checksum;
+            }
+            metrics.add("bytes.checksum", content.length);
+            Checksum checksum = Checksum.parse(algorithm, new String(content, "UTF-8"));
+            if(checksum != null && validators != null) {
+                validators.setChecksum(checksumURL, received, checksum);
+            }
+            return checksum;
+        } catch (FileNotFoundException ex) {
+            probes.put(checksumURL, false);
+        } catch (IOException ex) {
+            if(isUnavailable(ex)) {
+                probes.invalidate(checksumURL);
+            }
+        } finally {
+            metrics.time("checksum", start);
+        }
+        return null;
+    }
+    
+    /**
+     * Make sure a local file is the same as the remote one, and download it if it's not.
+     * The local file is hashed while it's downloaded, and verified against the strongest remote checksum. 
+     * Its checksum is then recorded next to it, so it doesn't have to be hashed again, and the ETag and Last-Modified
+     * of the file and of its checksum are kept too, so the next checks are conditional requests.
+     * @param url The remote file
+     * @param destination The local file
+     * @param callback The callback, notified if the download fails
+     * @return If the local file is up to date.
+     */
+    public boolean update(URL url, File destination, Callback callback) {
+        return update(url, destination, callback, null);
+    }
+    
+    /**
+     * @param dependency The dependency the file belongs to, or null. It's only used to describe the download.
+     * @see #update(URL, File, Callback)
+     */
+    public boolean update(URL url, File destination, Callback callback, Dependency dependency) {
+        return update(url, destination, callback, dependency, null, null);
+    }
+    
+    /**
+     * @param base If not null, an older version of the file, that can be patched instead of downloading the file.
+     * @param patchURL The remote patch from the base to the file (made by JarPatch)
+     * @see #update(URL, File, Callback, Dependency)
+     */
+    public boolean update(URL url, File destination, Callback callback, Dependency dependency, File base, URL patchURL) {
+        CacheValidators validators = CacheValidators.read(destination);
+        Checksum remote = fetchChecksum(url, validators);
+        
+        if(destination.isFile()) {
+            Checksum local = Checksum.readRecord(destination);
+            
+            //No record, the file changed since, or the repository now use another algorithm: we have to hash it again.
+            if(local == null || !local.describes(destination) || (remote != null && !remote.algorithm.equals(local.algorithm))) {
+                metrics.count("cache.record.misses");
+                long start = System.nanoTime();
+                try {
+                    local = Checksum.of(destination, remote != null ? remote.algorithm : Checksum.defaultAlgorithm);
+                    metrics.time("rehash", start);
+                    local.writeRecord(destination);
+                } catch (IOException ex) {
+                    local = null;
+                }
+            } else {
+                metrics.count("cache.record.hits");
+            }
+            
+            //Without a checksum, we can only ask the repository if the file changed since we downloaded it.
+            boolean modified = false;
+            if(local != null && remote == null && validators.hasFile(local)) {
+                modified = modifiedSince(url, validators) == Boolean.TRUE;
+            }
+            
+            if(local != null && (remote == null || remote.matches(local)) && !modified) {
+                metrics.count("files.upToDate");
+                if(progress != null) {
+                    progress.skip(url, destination);
+                }
+                validators.write(destination);
+                return true;
+            }
+        }
+        
+        if(seed != null && rootFolder != null && fromSeed(remote, destination)) {
+            metrics.count("cache.seed.hits");
+            if(progress != null) {
+                progress.skip(url, destination);
+            }
+            validators.write(destination);
+            return true;
+        }
+        
+        if(remote != null && store != null) {
+            if(store.link(remote, destination)) {
+                metrics.count("cache.store.hits");
+                if(progress != null) {
+                    progress.skip(url, destination);
+                }
+                remote.writeRecord(destination);
+                validators.write(destination);
+                return true;
+            }
+            metrics.count("cache.store.misses");
+        }
+        
+        if(base != null && patch(url, destination, remote, base, patchURL, dependency, validators)) {
+            return true;
+        }
+        
+        return download(url, destination, remote, callback, dependency, validators, true);
+    }
+    
+    /**
+     * Ask the repository if a file changed since the validators were sent with it.
+     */
+    private Boolean modifiedSince(URL url, CacheValidators validators) {
+        DownloadScheduler.Permit permit = scheduler.acquire(url, 0);
+        if(permit == null) {
+            return null;
+        }
+        metrics.count("requests.conditional");
+        long start = System.nanoTime();
+        Boolean modified;
+        try {
+            modified = Utils.modifiedSince(url, validators.etag, validators.lastModified);
+        } finally {
+            permit.release();
+        }
+        metrics.time("conditional", start);
+        if(modified == Boolean.FALSE) {
+            metrics.count("requests.notModified");
+        }
+        return modified;
+    }
+    
+    /**
+     * Download a remote file, and verify it against the given checksum.
+     * @param url The remote file
+     * @param destination The local file
+     * @param expected The checksum the file should have, or null if it can't be verified.
+     * @param callback The callback, notified if the download fails
+     * @return If the file has been downloaded and verified.
+     */
+    public boolean download(URL url, File destination, Checksum expected, Callback callback) {
+        return download(url, destination, expected, callback, null);
+    }
+    
+    /**
+     * @param dependency The dependency the file belongs to, or null. It's only used to describe the download.
+     * @see #download(URL, File, Checksum, Callback)
+     */
+    public boolean download(URL url, File destination, Checksum expected, Callback callback, Dependency dependency) {
+        return download(url, destination, expected, callback, dependency, null, true);
+    }
+    
+    /**
+     * @param validators If not null, the validators of the file are updated with the ones sent with it, and saved.
+     * @param shared If the file is added to the store (not for the files that are thrown away after they are used).
+     */
+    private boolean download(URL url, File destination, Checksum expected, Callback callback, Dependency dependency, CacheValidators validators, boolean shared) {
+        String algorithm = expected != null ? expected.algorithm : Checksum.defaultAlgorithm;
+        MessageDigest digest = Checksum.newDigest(algorithm);
+        
+        String kind = Metrics.kind(url.getPath());
+        metrics.count("requests." + kind);
+        long start = System.nanoTime();
+        Object event = Flight.beginDownload();
+        
+        Checksum.recordFile(destination).delete();
+        DownloadScheduler.Permit permit = scheduler.acquire(url, size(url, destination));
+        if(permit == null) {
+            metrics.count("failures." + kind);
+            Flight.endDownload(event, url, dependency, Utils.partFile(destination), "interrupted");
+            callback.downloadError(new InterruptedIOException("Interrupted while waiting for the scheduler"), url, destination);
+            return false;
+        }
+        boolean succeeded;
+        String[] received = new String[2];
+        //The error is only given to the callback once we know what it means for the probe of the url.
+        final IOException[] failure = new IOException[1];
+        Callback failures = new Callback() {
+            @Override
+            public void downloadError(IOException cause, URL originURL, File destination) {
+                failure[0] = cause;
+            }
+        };
+        try {
+            succeeded = Utils.downloadURL(url, destination, failures, digest, progress, received);
+        } finally {
+            permit.release();
+        }
+        if(!succeeded) {
+            metrics.count("failures." + kind);
+            Flight.endDownload(event, url, dependency, Utils.partFile(destination), "failed");
+            if(isUnavailable(failure[0])) {
+                //The file was there when it was probed, but it's not anymore (or the repository is down).
+                probes.invalidate(url);
+            }
+            callback.downloadError(failure[0], url, destination);
+            return false;
+        }
+        metrics.time("download." + kind, start);
+        metrics.add("bytes." + kind, destination.length());
+        
+        Checksum downloaded = new Checksum(algorithm, Utils.hex(digest.digest()));
+        if(expected != null && !expected.matches(downloaded)) {
+            Flight.endDownload(event, url, dependency, destination, "checksum mismatch");
+            destination.delete();
+            metrics.count("failures.checksum");
+            callback.downloadError(new IOException("Checksum mismatch: expected " + expected + " but downloaded " + downloaded), url, destination);
+            return false;
+        }
+        
+        Flight.endDownload(event, url, dependency, destination, "ok");
+        downloaded.writeRecord(destination);
+        if(validators != null) {
+            validators.setFile(received, downloaded);
+            validators.write(destination);
+        }
+        if(shared && store != null) {
+            store.add(downloaded, destination);
+        }
+        return true;
+    }
+    
+    /**
+     * Make a file from an older version of it and a patch (made by JarPatch), instead of downloading it.
+     * The result is verified against the checksum of the remote file (or the one of the patch if the repository doesn't have any).
+     * @param url The remote file
+     * @param destination The local file
+     * @param expected The checksum of the remote file, or null if the repository doesn't have any
+     * @param base The older version of the file
+     * @param patchURL The remote patch from the base to the remote file
+     * @param dependency The dependency the file belongs to, or null. It's only used to describe the download.
+     * @param validators The validators of the file, updated and saved like if it was downloaded
+     * @return If the file has been patched and verified. If not, nothing changed, and the file should be downloaded.
+     */
+    private boolean patch(URL url, File destination, Checksum expected, File base, URL patchURL, Dependency dependency, CacheValidators validators) {
+        if(is404(patchURL, dependency, dependency != null ? dependency.source : null)) {
+            return false;
+        }
+
+        //The patch is only a shortcut: if it fails, the file is downloaded, so the user doesn't have to know.
+        Callback quiet = new Callback() {
+            @Override
+            public void downloadError(IOException cause, URL originURL, File destination) {}
+        };
+        File patchFile = new File(destination.getPath() + JarPatch.patchExt);
+        File patched = new File(destination.getPath() + JarPatch.patchedExt);
+        try {
+            //The patch is thrown away once it's applied, so it's not shared.
+            if(!download(patchURL, patchFile, fetchChecksum(patchURL), quiet, dependency, null, false)) {
+                metrics.count("patch.failures");
+                return false;
+            }
+
+            long start = System.nanoTime();
+            MessageDigest digest = Checksum.newDigest(expected != null ? expected.algorithm : "SHA-1");
+            JarPatch.Header header;
+            try(InputStream in = new FileInputStream(patchFile); OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(patched)), digest)) {
+                header = JarPatch.apply(base, baseChecksum(base), in, out);
+            } catch(IOException ex) {
+                metrics.count("patch.failures");
+                return false;
+            }
+            if(expected == null) {
+                expected = new Checksum("SHA-1", header.target);
+            }
+            Checksum actual = new Checksum(expected.algorithm, Utils.hex(digest.digest()));
+            if(!expected.matches(actual)) {
+                metrics.count("patch.failures");
+                return false;
+            }
+
+            Checksum.recordFile(destination).delete();
+            try {
+                Utils.move(patched, destination);
+            } catch(IOException ex) {
+                metrics.count("patch.failures");
+                return false;
+            }
+            metrics.time("patch", start);
+            metrics.count("patch.hits");
+            metrics.add("bytes.patch.saved", destination.length() - patchFile.length());
+            actual.writeRecord(destination);
+            //The file was not sent, but the probe told its validators.
+            String[] received = probedValidators.get(url.toString());
+            validators.setFile(received != null ? received : new String[2], actual);
+            validators.write(destination);
+            if(store != null) {
+                store.add(actual, destination);
+            }
+            if(progress != null) {
+                progress.skip(url, destination);
+            }
+            return true;
+        } finally {
+            patched.delete();
+            patchFile.delete();
+            Checksum.recordFile(patchFile).delete();
+        }
+    }
+    
+    /**
+     * @return The SHA-1 of the base of a patch (the patches name their base by its SHA-1), from its record if it can.
+     */
+    private Checksum baseChecksum(File base) throws IOException {
+        Checksum record = Checksum.readRecord(base);
+        if(record != null && record.algorithm.equals("SHA-1") && record.describes(base)) {
+            return record;
+        }
+        return Checksum.of(base, "SHA-1");
+    }
+    
+    /**
+     * Take a file from the seed folder, if it's there and up to date.
+     * A hard link is used if possible, or a copy. Not a symbolic link: the seed file may be replaced by this one later.
+     */
+    private boolean fromSeed(Checksum remote, File destination) {
+        String root = rootFolder.getAbsolutePath() + File.separator;
+        String path = destination.getAbsolutePath();
+        if(!path.startsWith(root)) {
+            return false;
+        }
+        File source = new File(seed, path.substring(root.length()));
+        Checksum local = Checksum.readRecord(source);
+        if(local == null || !local.describes(source) || (remote != null && !remote.matches(local))) {
+            return false;
+        }
+        
+        destination.getParentFile().mkdirs();
+        File part = Utils.partFile(destination);
+        part.delete();
+        try {
+            try {
+                Files.createLink(part.toPath(), source.toPath());
+            } catch(IOException | UnsupportedOperationException ex) {
+                Files.copy(source.toPath(), part.toPath());
+            }
+            Utils.move(part, destination);
+        } catch(IOException ex) {
+            part.delete();
+            return false;
+        }
+        local.writeRecord(destination);
+        return true;
+    }
+    
+    /**
+     * @return The expected size of a remote file: the one the repository told, or the size of the old local file, or -1.
+     */
+    private long size(URL url, File destination) {
+        Long size = sizes.get(url.toString());
+        if(size != null) {
+            return size;
+        }
+        return destination.isFile() ? destination.length() : -1;
+    }
+    
+    /**
+     * Save what the transport learned, for the next launches.
+     */
+    public void save() {
+        probes.save();
+    }
+}
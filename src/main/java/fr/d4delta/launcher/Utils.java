@@ -17,16 +17,31 @@
 
 package fr.d4delta.launcher;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * The utils class contains stuff that I use for DeltaLauncher.
@@ -45,27 +60,82 @@ public class Utils {
         file.delete();
     }
     
+    /**
+     * Timeouts (in milliseconds) of the connections to the repositories, so a dead repository doesn't block the launcher forever.
+     */
+    public static int connectTimeout = 10000;
+    public static int readTimeout = 30000;
+    
+    public static URLConnection openConnection(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        return connection;
+    }
+    
     public static boolean is404(URL url) {
+        return probe(url) != Boolean.TRUE;
+    }
+    
+    /**
+     * Check if a remote file exists.
+     * @param url The remote file
+     * @return TRUE if the file exists, FALSE if the server says it doesn't, or null if we can't tell (network error, server error...)
+     */
+    public static Boolean probe(URL url) {
+        return probe(url, null);
+    }
+    
+    /**
+     * @param length If not null, receives the size of the remote file if the server tells it, or -1.
+     * @see #probe(URL)
+     */
+    public static Boolean probe(URL url, long[] length) {
+        return probe(url, length, null);
+    }
+    
+    /**
+     * @param validators If not null, receives the ETag and the Last-Modified of the remote file if the server tells them.
+     * @see #probe(URL, long[])
+     */
+    public static Boolean probe(URL url, long[] length, String[] validators) {
         
         URLConnection connection;
         InputStream urlIn = null;
         try {
-            connection = url.openConnection();
+            connection = openConnection(url);
             
             //If the connection is http, let's try if the response code is an error (>= 400)
+            //Server errors (>= 500) doesn't tell anything about the file.
+            //We only ask for the headers, so the file is not sent. If the server doesn't support it, we just ask for the file.
             if(connection instanceof HttpURLConnection) {
                 HttpURLConnection httpConnection = (HttpURLConnection) connection;
-                return httpConnection.getResponseCode() >= 400;
+                httpConnection.setRequestMethod("HEAD");
+                int code = httpConnection.getResponseCode();
+                if(code == HttpURLConnection.HTTP_BAD_METHOD || code == HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                    httpConnection = (HttpURLConnection) openConnection(url);
+                    code = httpConnection.getResponseCode();
+                    httpConnection.disconnect();
+                }
+                if(length != null) {
+                    length[0] = code < 300 ? httpConnection.getContentLengthLong() : -1;
+                }
+                if(validators != null && code < 300) {
+                    validators(httpConnection, validators);
+                }
+                return code >= 500 ? null : code < 400;
             }
             
             //In this case, the connection is not http, so it could be file://, or an other unkown protocol.
-            //we'll just try to open an input stream and read ; if we manage to do this without IOException, then false will be returned.
-            //Otherwise, an IOException will be threw up and true will be returned.
+            //we'll just try to open an input stream and read ; if we manage to do this without IOException, then the file exists.
+            //Otherwise, it doesn't if the exception is a FileNotFoundException, and we can't tell for the other exceptions.
             urlIn = connection.getInputStream();
             urlIn.read();
             
+        } catch (FileNotFoundException ex) {
+            return false;
         } catch (IOException ex) {
-            return true;
+            return null;
         } finally {
             try {
                 if(urlIn != null) {
@@ -74,7 +144,7 @@ public class Utils {
             } catch(IOException e) {}
         }
         
-        return false;
+        return true;
     }
     private static boolean follows(InputStream in, char[] chars) throws IOException {
         for(int i = 0 ; i < chars.length; i++) {
@@ -85,43 +155,324 @@ public class Utils {
         return true;
     }
     
+    /**
+     * Ask a remote file with a conditional request (If-None-Match / If-Modified-Since), without downloading it.
+     * @param url The remote file
+     * @param etag The ETag that was sent with the file, or null
+     * @param lastModified The Last-Modified that was sent with the file, or null
+     * @return FALSE if the file didn't change since these validators were sent, TRUE if it did, or null if we can't tell.
+     */
+    public static Boolean modifiedSince(URL url, String etag, String lastModified) {
+        try {
+            URLConnection connection = openConnection(url);
+            if(!(connection instanceof HttpURLConnection)) {
+                return null;
+            }
+            HttpURLConnection httpConnection = (HttpURLConnection) connection;
+            httpConnection.setRequestMethod("HEAD");
+            conditional(httpConnection, etag, lastModified);
+            int code = httpConnection.getResponseCode();
+            if(code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return false;
+            } else if(code >= 300) {
+                return null;
+            }
+            //Some servers ignore the conditions of a HEAD, but still send the validators.
+            String[] validators = new String[2];
+            validators(httpConnection, validators);
+            boolean same = (etag != null && etag.equals(validators[0])) || (etag == null && lastModified != null && lastModified.equals(validators[1]));
+            return !same;
+        } catch(IOException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Make a request conditional: the server answers 304 if the file didn't change since the validators were sent with it.
+     */
+    static void conditional(URLConnection connection, String etag, String lastModified) {
+        if(etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if(lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+    
+    /**
+     * @param validators Receives the ETag and the Last-Modified of the response (null if the server didn't send them, or if it's not http:
+     * the other connections can't make conditional requests)
+     */
+    static void validators(URLConnection connection, String[] validators) {
+        boolean http = connection instanceof HttpURLConnection;
+        validators[0] = http ? connection.getHeaderField("ETag") : null;
+        validators[1] = http ? connection.getHeaderField("Last-Modified") : null;
+    }
+    
+    /**
+     * @return If a remote file is text (poms, checksums, metadata), and should be asked compressed.
+     */
+    static boolean isText(URL url) {
+        String path = url.getPath();
+        String kind = Metrics.kind(path);
+        return kind.equals("pom") || kind.equals("checksum") || path.endsWith(".xml");
+    }
+    
+    /**
+     * @return The content of a response, uncompressed if the server compressed it.
+     */
+    static InputStream content(URLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        return "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? new GZIPInputStream(in, downloadBufferSize) : in;
+    }
+    
     static final int downloadBufferSize = 16384;
-    public static void downloadURL(URL url, File destination, Callback callback) {
+    public static boolean downloadURL(URL url, File destination, Callback callback) {
+        return downloadURL(url, destination, callback, null);
+    }
+    
+    /**
+     * Download a remote file.
+     * @param url The remote file
+     * @param destination Where to write it
+     * @param callback The callback, notified if the download fails
+     * @param digest If not null, updated with every downloaded byte.
+     * @return If the download succeeded
+     */
+    public static boolean downloadURL(URL url, File destination, Callback callback, MessageDigest digest) {
+        return downloadURL(url, destination, callback, digest, null);
+    }
+    
+    /**
+     * @param progress If not null, told about the progress of the download.
+     * @see #downloadURL(URL, File, Callback, MessageDigest)
+     */
+    public static boolean downloadURL(URL url, File destination, Callback callback, MessageDigest digest, Progress progress) {
+        return downloadURL(url, destination, callback, digest, progress, null);
+    }
+    
+    /**
+     * @param validators If not null, receives the ETag and the Last-Modified of the file (null if the server didn't send them)
+     * @see #downloadURL(URL, File, Callback, MessageDigest, Progress)
+     */
+    public static boolean downloadURL(URL url, File destination, Callback callback, MessageDigest digest, Progress progress, String[] validators) {
         
         destination.getParentFile().mkdirs();
-        try (final FileOutputStream out = new FileOutputStream(destination); final InputStream in = url.openStream()) {
-            long totalSize = url.openConnection().getContentLengthLong();
-            long downloaded = 0;
-            int read;
-            byte[] data = new byte[downloadBufferSize];
-            while ((read = in.read(data, 0, data.length)) != -1) {
-                out.write(data, 0, read);
-                downloaded += read;
-            }
+        File part = partFile(destination);
+        try {
+            download(url, destination, part, digest, progress, validators);
+            move(part, destination);
+            rangeValidatorFile(part).delete();
+            return true;
         } catch(IOException ex) {
-            destination.delete();
+            //The part file is kept, so the next download can resume it.
             callback.downloadError(ex, url, destination);
+            return false;
         }
     }
     
-    public static boolean equals(URL url, File file) {
-        try(InputStream urlIn = url.openStream(); InputStream fileIn = new FileInputStream(file)) {
-            return equals(fileIn, urlIn);
-        } catch(IOException ex) {
-            return false;
+    public static final String partExt = ".part";
+    
+    public static File partFile(File destination) {
+        return new File(destination.getPath() + partExt);
+    }
+    
+    static final long transferChunkSize = 1 << 16;
+    
+    /**
+     * The validator (ETag or Last-Modified) of the remote file a part file is the beginning of, so it's only resumed if the remote file didn't change.
+     */
+    private static File rangeValidatorFile(File part) {
+        return new File(part.getPath() + rangeExt);
+    }
+    
+    public static final String rangeExt = ".range";
+    
+    /**
+     * @return The validator that can be sent in an If-Range: a strong ETag, or the Last-Modified, or null if the server sent none.
+     */
+    private static String rangeValidator(URLConnection connection) {
+        String etag = connection.getHeaderField("ETag");
+        if(etag != null && !etag.startsWith("W/")) {
+            return etag;
         }
+        return connection.getHeaderField("Last-Modified");
     }
     
-    public static boolean equals(InputStream in1, InputStream in2) throws IOException {
-        int read1;
-        int read2;
+    /**
+     * Download a remote file into a part file. 
+     * If the part file already contains the beginning of the remote file, and if the server supports it, only the end is downloaded.
+     * Text files are asked compressed, unless they are resumed (the range would be a range of the compressed file).
+     */
+    private static void download(URL url, File destination, File part, MessageDigest digest, Progress progress, String[] validators) throws IOException {
+        long start = part.isFile() ? part.length() : 0;
+        File rangeValidatorFile = rangeValidatorFile(part);
+        //Without the validator of the remote file it was cut from, the part file could be joined to the end of another version.
+        String rangeValidator = start > 0 && rangeValidatorFile.isFile() ? new String(Files.readAllBytes(rangeValidatorFile.toPath()), "UTF-8") : null;
         
-        while((read1 = in1.read()) + (read2 = in2.read()) > -2 && read1 == read2);
-        return read1 == read2;
+        URLConnection connection = openConnection(url);
+        if(start > 0 && rangeValidator != null && connection instanceof HttpURLConnection) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-");
+            connection.setRequestProperty("If-Range", rangeValidator);
+        } else {
+            start = 0;
+            if(connection instanceof HttpURLConnection && isText(url)) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+        }
+        
+        if(connection instanceof HttpURLConnection) {
+            int code = ((HttpURLConnection) connection).getResponseCode();
+            if(code == 416) {
+                //The part file is not a beginning of the remote file (maybe it changed), so we start again.
+                ((HttpURLConnection) connection).disconnect();
+                part.delete();
+                rangeValidatorFile.delete();
+                download(url, destination, part, digest, progress, validators);
+                return;
+            } else if(code != 206) {
+                //The remote file changed (If-Range), or the server doesn't do ranges: we start again.
+                start = 0;
+            }
+            
+            if(start == 0) {
+                String validator = rangeValidator(connection);
+                if(validator != null) {
+                    Files.write(rangeValidatorFile.toPath(), validator.getBytes("UTF-8"));
+                } else {
+                    rangeValidatorFile.delete();
+                }
+            }
+        }
+        
+        if(validators != null) {
+            validators(connection, validators);
+        }
+        //The length of a compressed file is not the one we write. A truncated compressed file is detected by the GZIPInputStream anyway.
+        long length = "gzip".equalsIgnoreCase(connection.getContentEncoding()) ? -1 : connection.getContentLengthLong();
+        Progress.Transfer transfer = progress != null ? progress.begin(url, destination, start, length) : null;
+        
+        try(InputStream in = content(connection); FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(start);
+            if(digest != null && start > 0) {
+                //The resumed bytes have to be hashed too.
+                try(InputStream partIn = new FileInputStream(part)) {
+                    byte[] data = new byte[downloadBufferSize];
+                    long remaining = start;
+                    int read;
+                    while (remaining > 0 && (read = partIn.read(data, 0, (int) Math.min(data.length, remaining))) != -1) {
+                        digest.update(data, 0, read);
+                        remaining -= read;
+                    }
+                }
+            }
+            
+            ReadableByteChannel channel = Channels.newChannel(digest != null ? new DigestInputStream(in, digest) : in);
+            long position = start;
+            long transferred;
+            while((transferred = out.transferFrom(channel, position, transferChunkSize)) > 0) {
+                position += transferred;
+                if(transfer != null) {
+                    transfer.advance(transferred);
+                }
+            }
+            
+            if(length != -1 && position != start + length) {
+                throw new IOException("Incomplete download: " + (position - start) + " bytes received, " + length + " expected.");
+            }
+            out.force(false);
+        } finally {
+            if(transfer != null) {
+                transfer.end();
+            }
+        }
+    }
+    
+    /**
+     * Move a file, atomically if the file system supports it, so its destination is never seen half written.
+     */
+    public static void move(File source, File destination) throws IOException {
+        try {
+            Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Read a small remote file in memory.
+     * @param url The remote file
+     * @return The content of the file
+     * @throws FileNotFoundException If the remote file doesn't exist
+     * @throws IOException If something else went wrong
+     */
+    public static byte[] readURL(URL url) throws IOException {
+        return readURL(url, null, null, null);
+    }
+    
+    /**
+     * Read a small remote file in memory, with a conditional request if validators are given.
+     * @param etag The ETag that was sent with the file last time, or null
+     * @param lastModified The Last-Modified that was sent with the file last time, or null
+     * @param validators If not null, receives the ETag and the Last-Modified of the response (null if the server didn't send them)
+     * @return The content of the file, or null if it didn't change since the validators were sent (304).
+     * @see #readURL(URL)
+     */
+    public static byte[] readURL(URL url, String etag, String lastModified, String[] validators) throws IOException {
+        URLConnection connection = openConnection(url);
+        if(connection instanceof HttpURLConnection) {
+            conditional(connection, etag, lastModified);
+            if(isText(url)) {
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+            }
+            if(((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                //Closed without disconnecting, so the connection is kept alive for the next request.
+                connection.getInputStream().close();
+                return null;
+            }
+        }
+        if(validators != null) {
+            validators(connection, validators);
+        }
+        try(InputStream in = content(connection)) {
+            return readFully(in);
+        }
+    }
+    
+    public static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int read;
+        byte[] data = new byte[downloadBufferSize];
+        while ((read = in.read(data, 0, data.length)) != -1) {
+            out.write(data, 0, read);
+        }
+        return out.toByteArray();
+    }
+    
+    public static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for(byte b: bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
     }
     
+    public static String sha1(byte[] data) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-1").digest(data));
+        } catch (NoSuchAlgorithmException ex) {
+            //Every java platform has to support SHA-1.
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private static final PropertyScope systemScope = new PropertyScope(null);
+    
+    /**
+     * Substitute the maven variables (${...}) of a string with the System properties.
+     */
     public static String substituteMaven(String str) {
-        return substitute(str, "${", "}");
+        return systemScope.interpolate(str);
     }
     
     public static String substitute(String str, String startVar, String endVar) {
@@ -146,6 +497,58 @@ public class Utils {
         }
     }
     
+    /**
+     * @return The local file of a file:// url, or null if it's not one.
+     */
+    public static File file(URL url) {
+        try {
+            return new File(url.toURI());
+        } catch(URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * Split a command line into arguments, at the spaces. 
+     * Quotes (simple or double) keep the spaces of an argument, and a backslash escapes a quote, a space or a backslash.
+     * Other backslashes are kept, for the windows paths.
+     */
+    public static List<String> splitArguments(String line) {
+        List<String> arguments = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+        for(int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if(c == '\\' && i + 1 < line.length() && "\"' \\".indexOf(line.charAt(i + 1)) != -1) {
+                current.append(line.charAt(++i));
+                inArgument = true;
+            } else if(quote != 0) {
+                if(c == quote) {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if(c == '"' || c == '\'') {
+                quote = c;
+                inArgument = true;
+            } else if(Character.isWhitespace(c)) {
+                if(inArgument) {
+                    arguments.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if(inArgument) {
+            arguments.add(current.toString());
+        }
+        return arguments;
+    }
+    
     //From http://stackoverflow.com/questions/80476/how-to-concatenate-two-arrays-in-java
     public static <T> T[] concatenate(T[] a, T[] b) {
         int aLen = a.length;
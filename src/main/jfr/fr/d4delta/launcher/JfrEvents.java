@@ -0,0 +1,215 @@
+/* 
+    This file is part of DeltaLauncher.
+
+    DeltaLauncher is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    DeltaLauncher is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the Lesser GNU General Public License
+    along with DeltaLauncher.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package fr.d4delta.launcher;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JDK Flight Recorder events of the launcher.
+ * This is the only class that uses jdk.jfr, so it's in its own source folder, only compiled by the jfr profile (JDK 11 and later).
+ * Flight loads it by its name, once we know the JVM has jdk.jfr.
+ * @author d4delta
+ */
+final class JfrEvents implements Flight.Recorder {
+    
+    @Name("fr.d4delta.launcher.Probe")
+    @Label("Probe")
+    @Category("DeltaLauncher")
+    @Description("A request to know if a repository has a file")
+    static class ProbeEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Artifact")
+        String artifact;
+        @Label("Repository")
+        String repository;
+        @Label("Outcome")
+        String outcome;
+    }
+    
+    @Name("fr.d4delta.launcher.Download")
+    @Label("Download")
+    @Category("DeltaLauncher")
+    @Description("The download of a file from a repository")
+    static class DownloadEvent extends Event {
+        @Label("URL")
+        String url;
+        @Label("Artifact")
+        String artifact;
+        @Label("Repository")
+        String repository;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Outcome")
+        String outcome;
+    }
+    
+    @Name("fr.d4delta.launcher.PomParse")
+    @Label("Pom Parse")
+    @Category("DeltaLauncher")
+    @Description("The parse of a pom that was not in the pom cache")
+    static class PomParseEvent extends Event {
+        @Label("Pom")
+        String pom;
+        @Label("Artifact")
+        String artifact;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Outcome")
+        String outcome;
+    }
+    
+    @Name("fr.d4delta.launcher.NativeExtraction")
+    @Label("Native Extraction")
+    @Category("DeltaLauncher")
+    @Description("The extraction of a native pack")
+    static class NativeExtractionEvent extends Event {
+        @Label("Artifact")
+        String artifact;
+        @Label("Pack")
+        String pack;
+        @Label("Written Entries")
+        int written;
+        @Label("Unchanged Entries")
+        int unchanged;
+        @Label("Outcome")
+        String outcome;
+    }
+    
+    @Name("fr.d4delta.launcher.MainClassLoading")
+    @Label("Main Class Loading")
+    @Category("DeltaLauncher")
+    @Description("The loading of the main class, and the lookup of its main method")
+    static class MainClassLoadingEvent extends Event {
+        @Label("Main Class")
+        String mainClass;
+        @Label("Jars")
+        int jars;
+        @Label("Outcome")
+        String outcome;
+    }
+    
+    /**
+     * @return The event, begun, or null if it's not recorded.
+     */
+    private static <T extends Event> T begin(T event) {
+        if(!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+    
+    @Override
+    public Object beginProbe() {
+        return begin(new ProbeEvent());
+    }
+    
+    @Override
+    public void endProbe(Object o, String url, String artifact, String repository, String outcome) {
+        ProbeEvent event = (ProbeEvent) o;
+        event.end();
+        if(event.shouldCommit()) {
+            event.url = url;
+            event.artifact = artifact;
+            event.repository = repository;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+    
+    @Override
+    public Object beginDownload() {
+        return begin(new DownloadEvent());
+    }
+    
+    @Override
+    public void endDownload(Object o, String url, String artifact, String repository, long bytes, String outcome) {
+        DownloadEvent event = (DownloadEvent) o;
+        event.end();
+        if(event.shouldCommit()) {
+            event.url = url;
+            event.artifact = artifact;
+            event.repository = repository;
+            event.bytes = bytes;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+    
+    @Override
+    public Object beginPomParse() {
+        return begin(new PomParseEvent());
+    }
+    
+    @Override
+    public void endPomParse(Object o, String pom, String artifact, long bytes, String outcome) {
+        PomParseEvent event = (PomParseEvent) o;
+        event.end();
+        if(event.shouldCommit()) {
+            event.pom = pom;
+            event.artifact = artifact;
+            event.bytes = bytes;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+    
+    @Override
+    public Object beginNativeExtraction() {
+        return begin(new NativeExtractionEvent());
+    }
+    
+    @Override
+    public void endNativeExtraction(Object o, String artifact, String pack, int written, int unchanged, String outcome) {
+        NativeExtractionEvent event = (NativeExtractionEvent) o;
+        event.end();
+        if(event.shouldCommit()) {
+            event.artifact = artifact;
+            event.pack = pack;
+            event.written = written;
+            event.unchanged = unchanged;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+    
+    @Override
+    public Object beginMainClassLoading() {
+        return begin(new MainClassLoadingEvent());
+    }
+    
+    @Override
+    public void endMainClassLoading(Object o, String mainClass, int jars, String outcome) {
+        MainClassLoadingEvent event = (MainClassLoadingEvent) o;
+        event.end();
+        if(event.shouldCommit()) {
+            event.mainClass = mainClass;
+            event.jars = jars;
+            event.outcome = outcome;
+            event.commit();
+        }
+    }
+}